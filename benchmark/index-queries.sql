@@ -0,0 +1,87 @@
+-- Query cost of the lemma/index access paths on a synthetic corpus of 20 000 pages and ~1.5M index rows.
+--
+-- Usage: create an empty database, start the application against it once so Flyway creates the schema, stop it, then
+--   mysql -u root -p search_engine_bench < benchmark/index-queries.sql
+-- Compare the EXPLAIN ANALYZE output with a run where the V2 indexes are dropped first:
+--   ALTER TABLE `index` DROP INDEX lemma_page_rank_index, DROP INDEX page_lemma_index;
+--
+-- No results are recorded yet: the script has not been run against a MySQL instance, so the effect of V2 is unmeasured.
+--
+-- Lemma popularity is skewed (cube of a uniform value), so low lemma ids behave like common words
+-- and high ids like rare ones.
+
+SET SESSION cte_max_recursion_depth = 100000;
+
+INSERT INTO site (status, status_time, url, name)
+VALUES ('INDEXED', NOW(), 'https://bench.example', 'bench');
+SET @site = LAST_INSERT_ID();
+
+INSERT INTO page (site_id, path, code, token_count)
+WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < 20000)
+SELECT @site, CONCAT('/page/', i), 200, 300
+FROM n;
+
+INSERT INTO lemma (site_id, lemma, frequency, max_rank)
+WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < 5000)
+SELECT @site, CONCAT('lemma', LPAD(i, 4, '0')), 0, 0
+FROM n;
+SELECT MIN(id) - 1 INTO @lemma_base FROM lemma WHERE site_id = @site;
+
+INSERT IGNORE INTO `index` (page_id, lemma_id, `rank`)
+WITH RECURSIVE slot(j) AS (SELECT 1 UNION ALL SELECT j + 1 FROM slot WHERE j < 80)
+SELECT p.id, @lemma_base + 1 + FLOOR(POW(RAND(42), 3) * 5000), 1 + FLOOR(RAND(7) * 5)
+FROM page p
+         JOIN slot
+WHERE p.site_id = @site;
+
+UPDATE lemma l JOIN (SELECT lemma_id, COUNT(*) AS pages, MAX(`rank`) AS max_rank FROM `index` GROUP BY lemma_id) i
+    ON i.lemma_id = l.id
+SET l.frequency = i.pages,
+    l.max_rank  = i.max_rank;
+UPDATE site s
+SET s.indexed_pages = (SELECT COUNT(*) FROM page WHERE site_id = @site),
+    s.total_tokens  = (SELECT SUM(token_count) FROM page WHERE site_id = @site)
+WHERE s.id = @site;
+
+ANALYZE TABLE page, lemma, `index`;
+
+SELECT COUNT(*) AS index_rows FROM `index`;
+SELECT id, frequency INTO @common_lemma, @common_frequency FROM lemma WHERE site_id = @site ORDER BY frequency DESC LIMIT 1;
+SELECT id, frequency INTO @rare_lemma, @rare_frequency FROM lemma WHERE site_id = @site AND frequency > 0 ORDER BY frequency LIMIT 1;
+SELECT @common_lemma, @common_frequency, @rare_lemma, @rare_frequency;
+
+-- LemmaRepository.customSelectFromLemmaDB
+EXPLAIN ANALYZE
+SELECT * FROM lemma l WHERE l.site_id = @site AND l.frequency > 0 AND l.lemma = 'lemma0001';
+
+-- IndexRepository.findPostingsByLemmaId, common and rare lemma
+EXPLAIN ANALYZE
+SELECT i.page_id, i.lemma_id, i.`rank` FROM `index` i WHERE i.lemma_id = @common_lemma ORDER BY i.page_id;
+EXPLAIN ANALYZE
+SELECT i.page_id, i.lemma_id, i.`rank` FROM `index` i WHERE i.lemma_id = @rare_lemma ORDER BY i.page_id;
+
+-- DatabaseSearchIndex.countPages: pages with both lemmas, driven by the rare one
+EXPLAIN ANALYZE
+SELECT COUNT(*)
+FROM `index` i
+WHERE i.lemma_id = @rare_lemma
+  AND EXISTS (SELECT 1 FROM `index` o WHERE o.page_id = i.page_id AND o.lemma_id = @common_lemma);
+
+-- IndexRepository.findRanksByPageIds: two lemmas over a block of 1000 candidate pages (Bm25Scorer block size)
+SELECT MIN(id) INTO @first_page FROM page WHERE site_id = @site;
+EXPLAIN ANALYZE
+SELECT i.page_id, i.lemma_id, i.`rank`
+FROM `index` i
+WHERE i.lemma_id IN (@common_lemma, @rare_lemma)
+  AND i.page_id BETWEEN @first_page AND @first_page + 999;
+
+-- IndexBatchWriter.removePageIndexes: lemma counts of a batch of pages being reindexed
+EXPLAIN ANALYZE
+SELECT lemma_id, COUNT(*) AS pages
+FROM `index`
+WHERE page_id BETWEEN @first_page AND @first_page + 499
+GROUP BY lemma_id;
+
+-- PageRepository.findBySiteIdAndPath
+EXPLAIN ANALYZE
+SELECT * FROM page WHERE site_id = @site AND path = '/page/12345';
@@ -0,0 +1,74 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Переносит содержимое страниц из столбцов content, text и word_offsets таблицы page,
+ * заполненных версиями до page_content, в сжатую таблицу page_content и удаляет эти столбцы.
+ * Сжатие выполняется в Java, поэтому миграция не SQL-скрипт. Формат тот же, что у PageContentStore,
+ * но код сжатия скопирован сюда: миграция не должна меняться вместе с кодом приложения.
+ */
+public class V3__Move_page_content extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 500;
+    private static final List<String> LEGACY_COLUMNS = List.of("content", "text", "word_offsets");
+
+    @Override
+    public void migrate(Context context) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+
+        Set<String> columns = new HashSet<>(jdbcTemplate.queryForList("SELECT LOWER(column_name) FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = 'page'", String.class));
+        if (!columns.contains("content")) {
+            return;
+        }
+        String text = columns.contains("text") ? "text" : "NULL";
+        String wordOffsets = columns.contains("word_offsets") ? "word_offsets" : "NULL";
+
+        int lastId = 0;
+        while (true) {
+            List<Object[]> rows = new ArrayList<>();
+            jdbcTemplate.query("SELECT id, content, " + text + " AS text, " + wordOffsets + " AS word_offsets FROM page " +
+                    "WHERE id > ? ORDER BY id LIMIT " + BATCH_SIZE, rs -> {
+                String pageText = rs.getString("text");
+                rows.add(new Object[]{rs.getInt("id"), deflate(rs.getString("content")),
+                        pageText == null ? null : deflate(pageText), rs.getBytes("word_offsets")});
+            }, lastId);
+            if (rows.isEmpty()) {
+                break;
+            }
+            jdbcTemplate.batchUpdate("INSERT IGNORE INTO page_content (page_id, html, text, word_offsets) VALUES (?, ?, ?, ?)", rows);
+            lastId = (int) rows.get(rows.size() - 1)[0];
+        }
+
+        List<String> drops = LEGACY_COLUMNS.stream().filter(columns::contains).map(column -> "DROP COLUMN `" + column + "`").toList();
+        jdbcTemplate.execute("ALTER TABLE page " + String.join(", ", drops));
+    }
+
+    private static byte[] deflate(String value) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(value.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
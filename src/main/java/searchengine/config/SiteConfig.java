@@ -8,4 +8,13 @@ import lombok.Setter;
 public class SiteConfig {
     private String url;
     private String name;
+    private double requestsPerSecond = 2.5;
+    private int maxInFlight = 2;
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        if (!(requestsPerSecond > 0) || Double.isInfinite(requestsPerSecond)) {
+            throw new IllegalArgumentException("requests-per-second должен быть положительным числом: " + requestsPerSecond);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+    }
 }
@@ -13,4 +13,11 @@ import java.util.List;
 @ConfigurationProperties(prefix = "indexing-settings")
 public class SitesList {
     private List<SiteConfig> sites;
+    private int fetchThreads = 16;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 100;
+    /**
+     * Хранить позиции лемм в таблице index: нужны для фразовых запросов и учёта близости слов.
+     */
+    private boolean storePositions = false;
 }
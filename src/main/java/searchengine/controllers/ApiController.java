@@ -1,6 +1,5 @@
 package searchengine.controllers;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import searchengine.dto.indexing.IndexingResponse;
@@ -33,8 +32,10 @@ public class ApiController {
     }
 
     @GetMapping("/startIndexing")
-    public ResponseEntity<IndexingResponse> startIndexing() throws MalformedURLException {
-        IndexingResponse indexingResponse = indexingService.startIndexing();
+    public ResponseEntity<IndexingResponse> startIndexing(
+            @RequestParam(name = "incremental", defaultValue = "false") boolean incremental
+    ) throws MalformedURLException {
+        IndexingResponse indexingResponse = indexingService.startIndexing(incremental);
         return ResponseEntity.ok(indexingResponse);
     }
 
@@ -53,7 +54,7 @@ public class ApiController {
     @GetMapping("/search")
     public ResponseEntity<SearchResponse> search(
             @RequestParam(name = "query") String query,
-            @Value("${search-settings.offset}") int offset,
+            @RequestParam(name = "offset", defaultValue = "0") int offset,
             @RequestParam(name = "limit", defaultValue = "20") int limit,
             @RequestParam(name = "site", defaultValue = "") String site
     ) throws IOException {
@@ -7,5 +7,9 @@ public class TotalStatistics {
     private int sites;
     private int pages;
     private int lemmas;
+    private long indexes;
     private boolean indexing;
+    private int fetchQueue;
+    private int parseQueue;
+    private int writeQueue;
 }
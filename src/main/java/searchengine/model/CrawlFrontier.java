@@ -0,0 +1,26 @@
+package searchengine.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import javax.persistence.*;
+
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "crawl_frontier")
+public class CrawlFrontier {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @JoinColumn(name = "site_id", nullable = false)
+    private Site siteId;
+
+    @Column(name = "path", columnDefinition = "VARCHAR(1000)", nullable = false)
+    private String path;
+}
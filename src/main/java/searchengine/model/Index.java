@@ -25,4 +25,10 @@ public class Index {
     private Lemma lemmaId;
     @Column(name = "`rank`", columnDefinition = "FLOAT", nullable = false)
     private float rank;
+    /**
+     * Номера слов страницы с этой леммой, см. {@link searchengine.util.DeltaCoding};
+     * {@code null}, если индексация шла без позиций.
+     */
+    @Column(name = "positions", columnDefinition = "BLOB")
+    private byte[] positions;
 }
@@ -7,11 +7,12 @@ import org.hibernate.annotations.OnDeleteAction;
 
 
 import javax.persistence.*;
+import javax.persistence.Index;
 
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "lemma")
+@Table(name = "lemma", indexes = {@Index(name = "siteId_lemma_index", columnList = "site_id, lemma", unique = true)})
 public class Lemma {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -21,9 +22,15 @@ public class Lemma {
     @OnDelete(action = OnDeleteAction.CASCADE)
     @JoinColumn(name = "site_id", nullable = false)
     private Site siteId;
-    @Column(columnDefinition = "VARCHAR(255)", nullable = false)
+    @Column(columnDefinition = "VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin", nullable = false)
     private String lemma;
     @Column(nullable = false)
     private Integer frequency;
+    /**
+     * Наибольший rank леммы на страницах сайта; при удалении страниц не уменьшается, поэтому остаётся верхней границей.
+     * NULL у лемм, проиндексированных до появления столбца.
+     */
+    @Column(name = "max_rank", columnDefinition = "FLOAT NULL")
+    private Float maxRank;
 
 }
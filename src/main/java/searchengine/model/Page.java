@@ -29,7 +29,20 @@ public class Page {
     @Column(nullable = false)
     private Integer code;
 
-    @Column(columnDefinition = "MEDIUMTEXT CHARACTER SET utf8mb4", nullable = false)
-    private String content;
+    @Column(name = "etag", columnDefinition = "VARCHAR(255)")
+    private String etag;
+    @Column(name = "last_modified", columnDefinition = "VARCHAR(64)")
+    private String lastModified;
+    @Column(name = "content_hash", columnDefinition = "CHAR(64)")
+    private String contentHash;
+
+    /**
+     * Число слов страницы, из которых получены леммы: длина документа для BM25.
+     */
+    @Column(name = "token_count", columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int tokenCount;
+
+    @Column(name = "title", columnDefinition = "VARCHAR(500) CHARACTER SET utf8mb4")
+    private String title;
 
 }
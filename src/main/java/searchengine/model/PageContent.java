@@ -0,0 +1,39 @@
+package searchengine.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import javax.persistence.*;
+
+/**
+ * Содержимое страницы, сжатое Deflate. Хранится отдельно от {@link Page}, чтобы выборки страниц
+ * не читали HTML; читается только для сниппетов найденных страниц.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "page_content")
+public class PageContent {
+
+    @Id
+    @Column(name = "page_id")
+    private Integer pageId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @JoinColumn(name = "page_id")
+    private Page page;
+
+    @Column(name = "html", columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] html;
+    /**
+     * Очищенный текст страницы, см. {@link searchengine.util.PageText}; NULL у страниц, проиндексированных без него.
+     */
+    @Column(name = "text", columnDefinition = "MEDIUMBLOB")
+    private byte[] text;
+    @Column(name = "word_offsets", columnDefinition = "MEDIUMBLOB")
+    private byte[] wordOffsets;
+}
@@ -22,9 +22,35 @@ public class Site {
     private String lastError;
     @Column(columnDefinition = "VARCHAR(255)", nullable = false)
     private String url;
-    @Column(columnDefinition = "VARCHAR(255)", nullable = false, unique = true)
+    @Column(columnDefinition = "VARCHAR(255)", nullable = false)
     private String name;
 
+    /**
+     * Поколение сайта, по которому идёт поиск. Полная переиндексация строит новое поколение неактивным
+     * и переключает поколения запросом {@link searchengine.repository.SiteRepository#activate}, поэтому при сохранении сайта не пишется.
+     */
+    @Column(name = "active", columnDefinition = "BOOLEAN NOT NULL DEFAULT TRUE", updatable = false)
+    private boolean active = true;
+
+    /**
+     * Статистика для BM25: число проиндексированных страниц и сумма их длин.
+     * Поддерживается запросами {@link searchengine.repository.IndexBatchWriter}, поэтому при сохранении сайта не пишется.
+     */
+    @Column(name = "indexed_pages", columnDefinition = "INT NOT NULL DEFAULT 0", insertable = false, updatable = false)
+    private int indexedPages;
+    @Column(name = "total_tokens", columnDefinition = "BIGINT NOT NULL DEFAULT 0", insertable = false, updatable = false)
+    private long totalTokens;
+
+    /**
+     * Сохранённые значения счётчиков {@link searchengine.repository.SiteCounters}: пишутся только ими.
+     */
+    @Column(name = "page_count", columnDefinition = "INT NOT NULL DEFAULT 0", insertable = false, updatable = false)
+    private int pageCount;
+    @Column(name = "lemma_count", columnDefinition = "INT NOT NULL DEFAULT 0", insertable = false, updatable = false)
+    private int lemmaCount;
+    @Column(name = "index_count", columnDefinition = "BIGINT NOT NULL DEFAULT 0", insertable = false, updatable = false)
+    private long indexCount;
+
     public Site() {
         setStatus("INDEXING");
         setStatusTime(LocalDateTime.now());
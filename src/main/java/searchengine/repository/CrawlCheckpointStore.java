@@ -0,0 +1,57 @@
+package searchengine.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Контрольные точки обхода: пути страниц, которые ещё не были обработаны.
+ * По ним прерванный обход продолжается с того же места.
+ */
+@Repository
+public class CrawlCheckpointStore {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void save(Integer siteId, Collection<String> paths) {
+        clear(siteId);
+        add(siteId, paths);
+    }
+
+    /**
+     * Дописывает пути к контрольной точке сайта. Путь, который уже в ней есть, может повториться.
+     */
+    public void add(Integer siteId, Collection<String> paths) {
+        List<Object[]> rows = new ArrayList<>();
+        paths.forEach(path -> rows.add(new Object[]{siteId, path}));
+
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate("INSERT INTO crawl_frontier (site_id, path) VALUES (?, ?)",
+                    rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+        }
+    }
+
+    public List<String> load(Integer siteId) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT path FROM crawl_frontier WHERE site_id = ?", String.class, siteId);
+    }
+
+    public boolean exists(Integer siteId) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT 1 FROM crawl_frontier WHERE site_id = ? LIMIT 1) f", Integer.class, siteId);
+        return count != null && count > 0;
+    }
+
+    @Transactional
+    public void clear(Integer siteId) {
+        jdbcTemplate.update("DELETE FROM crawl_frontier WHERE site_id = ?", siteId);
+    }
+}
@@ -0,0 +1,267 @@
+package searchengine.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.Page;
+import searchengine.model.Site;
+import searchengine.util.DeltaCoding;
+import searchengine.util.TermCountMap;
+
+import java.util.*;
+
+/**
+ * Пакетная запись лемм и индексов страниц.
+ * Вместо нескольких запросов на каждую лемму выполняет один upsert лемм,
+ * одну выборку их идентификаторов и один пакетный insert в таблицу index на пачку строк.
+ */
+@Repository
+public class IndexBatchWriter {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int DELETE_CHUNK_PAGES = 100;
+    private static final int DELETE_CHUNK_LEMMAS = 5000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private SiteCounters siteCounters;
+
+    @Transactional
+    public void writePage(Site site, Page page, TermCountMap lemmasCountMap) {
+        writePages(site, Map.of(page, lemmasCountMap));
+    }
+
+    @Transactional
+    public void writePages(Site site, Map<Page, TermCountMap> pagesLemmas) {
+        // TreeMap: строки лемм блокируются в одном порядке во всех потоках, без взаимных блокировок
+        Map<String, Integer> frequencies = new TreeMap<>();
+        Map<String, Integer> maxRanks = new HashMap<>();
+        pagesLemmas.values().forEach(lemmasCountMap -> lemmasCountMap.forEach((lemma, count) -> {
+            frequencies.merge(lemma, 1, Integer::sum);
+            maxRanks.merge(lemma, count, Math::max);
+        }));
+
+        if (frequencies.isEmpty()) {
+            return;
+        }
+
+        int insertedLemmas = upsertLemmas(site.getId(), frequencies, "frequency = frequency + VALUES(frequency)");
+        siteCounters.addLemmas(site.getId(), insertedLemmas);
+        Map<String, Integer> lemmaIds = findLemmaIds(site.getId(), frequencies.keySet());
+
+        Map<Integer, Integer> maxRanksById = new HashMap<>();
+        maxRanks.forEach((lemma, rank) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (lemmaId != null) {
+                maxRanksById.put(lemmaId, rank);
+            }
+        });
+        raiseMaxRanks(maxRanksById);
+        insertIndexes(pagesLemmas, lemmaIds);
+    }
+
+    @Transactional
+    public Map<String, Integer> insertLemmas(Integer siteId, Collection<String> lemmas) {
+        Map<String, Integer> frequencies = new TreeMap<>();
+        lemmas.forEach(lemma -> frequencies.put(lemma, 0));
+
+        if (frequencies.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        siteCounters.addLemmas(siteId, upsertLemmas(siteId, frequencies, null));
+        return findLemmaIds(siteId, frequencies.keySet());
+    }
+
+    @Transactional
+    public void insertIndexes(Map<Page, TermCountMap> pagesLemmas, Map<String, Integer> lemmaIds) {
+        List<Object[]> rows = new ArrayList<>();
+        Map<Integer, Long> rowsBySite = new HashMap<>();
+        pagesLemmas.forEach((page, lemmasCountMap) -> lemmasCountMap.forEach((lemma, rank) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (lemmaId != null) {
+                int[] positions = lemmasCountMap.positions(lemma);
+                rows.add(new Object[]{page.getId(), lemmaId, rank, positions == null ? null : DeltaCoding.encode(positions)});
+                rowsBySite.merge(page.getSiteId().getId(), 1L, Long::sum);
+            }
+        }));
+
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate("INSERT INTO `index` (page_id, lemma_id, `rank`, positions) VALUES (?, ?, ?, ?)",
+                    rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+        }
+        addDocumentStatistics(pagesLemmas);
+        rowsBySite.forEach(siteCounters::addIndexes);
+    }
+
+    @Transactional
+    public void addLemmaFrequencies(Map<Integer, Long> frequencyDeltas) {
+        List<Object[]> rows = new ArrayList<>();
+        frequencyDeltas.forEach((lemmaId, delta) -> rows.add(new Object[]{delta, lemmaId}));
+
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate("UPDATE lemma SET frequency = frequency + ? WHERE id = ?",
+                    rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+        }
+    }
+
+    /**
+     * Поднимает верхнюю границу rank лемм для оценки запросов с отсечением.
+     * У лемм с неизвестной границей (NULL) она так и остаётся неизвестной: GREATEST с NULL даёт NULL.
+     */
+    @Transactional
+    public void raiseMaxRanks(Map<Integer, Integer> maxRanks) {
+        List<Object[]> rows = new ArrayList<>();
+        new TreeMap<>(maxRanks).forEach((lemmaId, rank) -> rows.add(new Object[]{rank, lemmaId}));
+
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate("UPDATE lemma SET max_rank = GREATEST(max_rank, ?) WHERE id = ?",
+                    rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+        }
+    }
+
+    /**
+     * Удаляет индексы страниц, уменьшает частоты их лемм, статистику длин и счётчик индексов сайта.
+     * Строки индекса сначала читаются с блокировкой: частоты уменьшаются ровно на удаляемые пары (страница, лемма),
+     * даже если другой поток (добавление страницы через API) в это время пишет индекс тех же страниц.
+     */
+    @Transactional
+    public void removePageIndexes(List<Integer> pageIds) {
+        for (int from = 0; from < pageIds.size(); from += BATCH_SIZE) {
+            List<Integer> chunk = pageIds.subList(from, Math.min(pageIds.size(), from + BATCH_SIZE));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            Object[] args = chunk.toArray();
+
+            jdbcTemplate.update("UPDATE site s JOIN (SELECT site_id, COUNT(*) AS pages, SUM(token_count) AS tokens FROM page " +
+                    "WHERE id IN (" + placeholders + ") AND token_count > 0 GROUP BY site_id) p ON p.site_id = s.id " +
+                    "SET s.indexed_pages = s.indexed_pages - p.pages, s.total_tokens = s.total_tokens - p.tokens", args);
+            jdbcTemplate.update("UPDATE page SET token_count = 0 WHERE id IN (" + placeholders + ")", args);
+
+            // TreeMap: строки лемм блокируются в одном порядке, как и при записи
+            Map<Integer, Integer> removedByLemma = new TreeMap<>();
+            Map<Integer, Long> rowsBySite = new HashMap<>();
+            jdbcTemplate.query("SELECT i.lemma_id, p.site_id FROM `index` i JOIN page p ON p.id = i.page_id " +
+                    "WHERE i.page_id IN (" + placeholders + ") FOR UPDATE", rs -> {
+                removedByLemma.merge(rs.getInt("lemma_id"), 1, Integer::sum);
+                rowsBySite.merge(rs.getInt("site_id"), 1L, Long::sum);
+            }, args);
+            if (removedByLemma.isEmpty()) {
+                continue;
+            }
+
+            List<Object[]> rows = new ArrayList<>();
+            removedByLemma.forEach((lemmaId, pages) -> rows.add(new Object[]{pages, lemmaId}));
+            for (int row = 0; row < rows.size(); row += BATCH_SIZE) {
+                jdbcTemplate.batchUpdate("UPDATE lemma SET frequency = frequency - ? WHERE id = ?",
+                        rows.subList(row, Math.min(rows.size(), row + BATCH_SIZE)));
+            }
+            jdbcTemplate.update("DELETE FROM `index` WHERE page_id IN (" + placeholders + ")", args);
+            rowsBySite.forEach((siteId, count) -> siteCounters.addIndexes(siteId, -count));
+        }
+    }
+
+    /**
+     * Учитывает страницы в статистике сайта для BM25; страницы без лемм не считаются документами.
+     */
+    private void addDocumentStatistics(Map<Page, TermCountMap> pagesLemmas) {
+        Map<Integer, long[]> statistics = new TreeMap<>();
+        pagesLemmas.forEach((page, lemmasCountMap) -> {
+            if (lemmasCountMap.totalCount() > 0) {
+                long[] siteStatistics = statistics.computeIfAbsent(page.getSiteId().getId(), siteId -> new long[2]);
+                siteStatistics[0]++;
+                siteStatistics[1] += lemmasCountMap.totalCount();
+            }
+        });
+
+        List<Object[]> rows = new ArrayList<>();
+        statistics.forEach((siteId, siteStatistics) -> rows.add(new Object[]{siteStatistics[0], siteStatistics[1], siteId}));
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE site SET indexed_pages = indexed_pages + ?, total_tokens = total_tokens + ? WHERE id = ?", rows);
+        }
+    }
+
+    /**
+     * Удаляет сайт со всеми страницами, леммами и индексами небольшими порциями, чтобы не держать
+     * долгих блокировок таблиц, по которым в это время идёт поиск и запись других сайтов.
+     */
+    public void deleteSite(int siteId) {
+        while (true) {
+            List<Integer> pageIds = jdbcTemplate.queryForList("SELECT id FROM page WHERE site_id = ? LIMIT " + DELETE_CHUNK_PAGES,
+                    Integer.class, siteId);
+            if (pageIds.isEmpty()) {
+                break;
+            }
+            String placeholders = String.join(", ", Collections.nCopies(pageIds.size(), "?"));
+            jdbcTemplate.update("DELETE FROM `index` WHERE page_id IN (" + placeholders + ")", pageIds.toArray());
+            jdbcTemplate.update("DELETE FROM page WHERE id IN (" + placeholders + ")", pageIds.toArray());
+        }
+        int deletedLemmas;
+        do {
+            deletedLemmas = jdbcTemplate.update("DELETE FROM lemma WHERE site_id = ? LIMIT " + DELETE_CHUNK_LEMMAS, siteId);
+        } while (deletedLemmas > 0);
+        jdbcTemplate.update("DELETE FROM site WHERE id = ?", siteId);
+        siteCounters.remove(siteId);
+    }
+
+    @Transactional
+    public void deleteUnusedLemmas(Integer siteId) {
+        int deleted = jdbcTemplate.update("DELETE FROM lemma WHERE site_id = ? AND frequency <= 0", siteId);
+        siteCounters.addLemmas(siteId, -deleted);
+    }
+
+    /**
+     * @param onDuplicate обновление существующей леммы; null - существующие леммы не трогаются
+     * @return число новых лемм
+     */
+    private int upsertLemmas(Integer siteId, Map<String, Integer> frequencies, String onDuplicate) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(frequencies.entrySet());
+        int inserted = 0;
+
+        for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+            List<Map.Entry<String, Integer>> chunk = entries.subList(from, Math.min(entries.size(), from + BATCH_SIZE));
+
+            StringBuilder sql = new StringBuilder(onDuplicate == null ? "INSERT IGNORE" : "INSERT")
+                    .append(" INTO lemma (site_id, lemma, frequency, max_rank) VALUES ");
+            Object[] args = new Object[chunk.size() * 3];
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, 0)" : ", (?, ?, ?, 0)");
+                args[i * 3] = siteId;
+                args[i * 3 + 1] = chunk.get(i).getKey();
+                args[i * 3 + 2] = chunk.get(i).getValue();
+            }
+            if (onDuplicate == null) {
+                // пропущенная существующая строка не считается затронутой
+                inserted += jdbcTemplate.update(sql.toString(), args);
+            } else {
+                // вставка считается одной затронутой строкой, изменённая существующая - двумя
+                sql.append(" ON DUPLICATE KEY UPDATE ").append(onDuplicate);
+                inserted += 2 * chunk.size() - jdbcTemplate.update(sql.toString(), args);
+            }
+        }
+        return inserted;
+    }
+
+    private Map<String, Integer> findLemmaIds(Integer siteId, Set<String> lemmas) {
+        List<String> lemmaList = new ArrayList<>(lemmas);
+        Map<String, Integer> lemmaIds = new HashMap<>();
+
+        for (int from = 0; from < lemmaList.size(); from += BATCH_SIZE) {
+            List<String> chunk = lemmaList.subList(from, Math.min(lemmaList.size(), from + BATCH_SIZE));
+
+            String sql = "SELECT id, lemma FROM lemma WHERE site_id = ? AND lemma IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = siteId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+
+            jdbcTemplate.query(sql, rs -> {
+                lemmaIds.put(rs.getString("lemma"), rs.getInt("id"));
+            }, args);
+        }
+        return lemmaIds;
+    }
+}
@@ -11,10 +11,33 @@ import java.util.List;
 public interface IndexRepository extends JpaRepository<Index, Integer> {
 
     @Query(nativeQuery = true,
-            value = "select page_id from `index` where `index`.lemma_id=:lemmaId")
-    List<Integer> findPageIdLemmaId(int lemmaId);
+            value = "select i.page_id as pageId, i.lemma_id as lemmaId, i.`rank` as `rank` from `index` i " +
+                    "where i.lemma_id = :lemmaId order by i.page_id")
+    List<PageLemmaRank> findPostingsByLemmaId(int lemmaId);
 
     @Query(nativeQuery = true,
-            value = "SELECT * FROM search_engine.`index` i where i.page_id = :pageId AND i.lemma_id = :lemmaId")
-    List<Index> findByPageIdAndLemmaId(int pageId, int lemmaId);
+            value = "select i.page_id as pageId, i.lemma_id as lemmaId, i.`rank` as `rank` from `index` i " +
+                    "where i.lemma_id in (:lemmaIds) and i.page_id in (:pageIds)")
+    List<PageLemmaRank> findRanksByPageIds(List<Integer> lemmaIds, List<Integer> pageIds);
+
+    @Query(nativeQuery = true,
+            value = "select i.page_id as pageId, i.lemma_id as lemmaId, i.positions as positions from `index` i " +
+                    "where i.lemma_id in (:lemmaIds) and i.page_id in (:pageIds)")
+    List<PageLemmaPositions> findPositionsByPageIds(List<Integer> lemmaIds, List<Integer> pageIds);
+
+    interface PageLemmaRank {
+        Integer getPageId();
+
+        Integer getLemmaId();
+
+        Float getRank();
+    }
+
+    interface PageLemmaPositions {
+        Integer getPageId();
+
+        Integer getLemmaId();
+
+        byte[] getPositions();
+    }
 }
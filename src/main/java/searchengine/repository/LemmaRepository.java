@@ -11,18 +11,6 @@ import java.util.List;
 public interface LemmaRepository extends JpaRepository<Lemma, Integer> {
 
     @Query(nativeQuery = true,
-            value = "select * from lemma where lemma.lemma=:lemma")
-    List<Lemma> findByLemma(String lemma);
-
-    @Query(nativeQuery = true,
-            value = "select COUNT(*) from lemma where lemma.site_id=:siteId")
-    Integer findCountOfLemmasBySiteId(Integer siteId);
-
-    @Query(nativeQuery = true,
-            value = "select * from lemma l where l.site_id=:siteId AND l.frequency <250 AND l.lemma=:lemma")
+            value = "select * from lemma l where l.site_id=:siteId AND l.frequency > 0 AND l.lemma=:lemma")
     Lemma customSelectFromLemmaDB(Integer siteId, String lemma);
-
-    @Query(nativeQuery = true,
-            value = "select * from lemma l where l.frequency <250 AND l.lemma=:lemma")
-    Lemma customSelectAllSitesFromLemmaDB(String lemma);
 }
@@ -0,0 +1,110 @@
+package searchengine.repository;
+
+import org.jsoup.Jsoup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.util.DeltaCoding;
+import searchengine.util.PageText;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Запись и чтение сжатого содержимого страниц в таблице page_content.
+ */
+@Repository
+public class PageContentStore {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void save(int pageId, String html, PageText pageText) {
+        saveAll(List.of(new Content(pageId, html, pageText)));
+    }
+
+    @Transactional
+    public void saveAll(Collection<Content> contents) {
+        List<Object[]> rows = new ArrayList<>();
+        contents.forEach(content -> rows.add(new Object[]{content.pageId(), deflate(content.html()),
+                deflate(content.pageText().text()), DeltaCoding.encode(content.pageText().wordOffsets())}));
+
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate("INSERT INTO page_content (page_id, html, text, word_offsets) VALUES (?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE html = VALUES(html), text = VALUES(text), word_offsets = VALUES(word_offsets)",
+                    rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)));
+        }
+    }
+
+    /**
+     * Тексты страниц для сниппетов. HTML читается только у страниц без сохранённого текста.
+     */
+    public Map<Integer, PageText> findTexts(List<Integer> pageIds) {
+        Map<Integer, PageText> texts = new HashMap<>();
+        for (int from = 0; from < pageIds.size(); from += BATCH_SIZE) {
+            List<Integer> chunk = pageIds.subList(from, Math.min(pageIds.size(), from + BATCH_SIZE));
+            String sql = "SELECT c.page_id, p.title, c.text, c.word_offsets, IF(c.text IS NULL, c.html, NULL) AS html " +
+                    "FROM page_content c JOIN page p ON p.id = c.page_id WHERE c.page_id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+
+            jdbcTemplate.query(sql, rs -> {
+                byte[] text = rs.getBytes("text");
+                PageText pageText = text == null || rs.getBytes("word_offsets") == null
+                        ? PageText.of(Jsoup.parse(inflate(rs.getBytes("html"))))
+                        : new PageText(rs.getString("title"), inflate(text), DeltaCoding.decode(rs.getBytes("word_offsets")));
+                texts.put(rs.getInt("page_id"), pageText);
+            }, chunk.toArray());
+        }
+        return texts;
+    }
+
+    static byte[] deflate(String value) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(value.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String inflate(byte[] value) {
+        if (value == null) {
+            return "";
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Повреждённое содержимое страницы");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Повреждённое содержимое страницы", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public record Content(int pageId, String html, PageText pageText) {
+    }
+}
@@ -2,21 +2,53 @@ package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import searchengine.model.Page;
+import searchengine.model.Site;
 
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PageRepository extends JpaRepository<Page, Integer> {
-    Optional<Page> findByPath(String path);
+    Optional<Page> findBySiteIdAndPath(Site siteId, String path);
 
     @Query(nativeQuery = true,
-            value = "select COUNT(*) from page where page.site_id=:siteId")
-    Integer findCountOfPagesBySiteId(Integer siteId);
+            value = "select p.id as id, p.path as path, s.url as siteUrl, s.name as siteName from page p " +
+                    "join site s on s.id = p.site_id where p.id in (:ids)")
+    List<FoundPage> findFoundPagesByIds(List<Integer> ids);
 
-    @Query("SELECT p FROM Page p WHERE p.id IN :ids")
-    List<Page> findPagesByIds(@Param("ids") List<Integer> ids);
+    List<PageState> findBySiteId(Site siteId);
+
+    @Query(nativeQuery = true,
+            value = "select p.id as id, p.token_count as tokenCount from page p where p.id in (:ids)")
+    List<PageLength> findTokenCountsByIds(List<Integer> ids);
+
+    interface FoundPage {
+        Integer getId();
+
+        String getPath();
+
+        String getSiteUrl();
+
+        String getSiteName();
+    }
+
+    interface PageLength {
+        Integer getId();
+
+        Integer getTokenCount();
+    }
+
+    interface PageState {
+        Integer getId();
+
+        String getPath();
+
+        String getEtag();
+
+        String getLastModified();
+
+        String getContentHash();
+    }
 }
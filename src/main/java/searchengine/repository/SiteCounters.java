@@ -0,0 +1,138 @@
+package searchengine.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import searchengine.model.Site;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Число страниц, лемм и индексов каждого сайта. Счётчики меняются приращениями на пути записи индекса
+ * и живут в памяти, а в таблицу site сбрасываются раз в {@code indexing-settings.counters-flush-ms},
+ * поэтому статистика читается без подсчёта строк.
+ * <p>
+ * После аварийного завершения в базе остаются значения последнего сброса; полная переиндексация сайта начинает счёт заново.
+ */
+@Slf4j
+@Repository
+public class SiteCounters {
+
+    private final Map<Integer, Counters> counters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "site-counters-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Value("${indexing-settings.counters-flush-ms:5000}")
+    private long flushMillis;
+
+    @PostConstruct
+    public void start() {
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.warn("Не удалось сбросить счётчики сайтов", e);
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    public void addPages(int siteId, long delta) {
+        if (delta != 0) {
+            counters(siteId).add(delta, 0, 0);
+        }
+    }
+
+    public void addLemmas(int siteId, long delta) {
+        if (delta != 0) {
+            counters(siteId).add(0, delta, 0);
+        }
+    }
+
+    public void addIndexes(int siteId, long delta) {
+        if (delta != 0) {
+            counters(siteId).add(0, 0, delta);
+        }
+    }
+
+    /**
+     * Текущие значения счётчиков сайта. Если сайт ещё не менялся после запуска, берутся сохранённые в самой записи site.
+     */
+    public Counts counts(Site site) {
+        Counters siteCounters = counters.computeIfAbsent(site.getId(),
+                siteId -> new Counters(site.getPageCount(), site.getLemmaCount(), site.getIndexCount()));
+        return new Counts((int) siteCounters.pages.get(), (int) siteCounters.lemmas.get(), siteCounters.indexes.get());
+    }
+
+    /**
+     * Забывает счётчики удалённого сайта.
+     */
+    public void remove(int siteId) {
+        counters.remove(siteId);
+    }
+
+    public synchronized void flush() {
+        List<Object[]> rows = new ArrayList<>();
+        counters.forEach((siteId, siteCounters) -> {
+            if (siteCounters.dirty) {
+                // флаг снимается до чтения: приращение во время сброса снова пометит счётчики
+                siteCounters.dirty = false;
+                rows.add(new Object[]{siteCounters.pages.get(), siteCounters.lemmas.get(), siteCounters.indexes.get(), siteId});
+            }
+        });
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE site SET page_count = ?, lemma_count = ?, index_count = ? WHERE id = ?", rows);
+        }
+    }
+
+    private Counters counters(int siteId) {
+        return counters.computeIfAbsent(siteId, id -> jdbcTemplate.queryForObject(
+                "SELECT page_count, lemma_count, index_count FROM site WHERE id = ?",
+                (rs, rowNum) -> new Counters(rs.getInt("page_count"), rs.getInt("lemma_count"), rs.getLong("index_count")),
+                id));
+    }
+
+    public record Counts(int pages, int lemmas, long indexes) {
+    }
+
+    private static class Counters {
+        private final AtomicLong pages;
+        private final AtomicLong lemmas;
+        private final AtomicLong indexes;
+        private volatile boolean dirty;
+
+        Counters(long pages, long lemmas, long indexes) {
+            this.pages = new AtomicLong(pages);
+            this.lemmas = new AtomicLong(lemmas);
+            this.indexes = new AtomicLong(indexes);
+        }
+
+        void add(long pagesDelta, long lemmasDelta, long indexesDelta) {
+            pages.addAndGet(pagesDelta);
+            lemmas.addAndGet(lemmasDelta);
+            indexes.addAndGet(indexesDelta);
+            dirty = true;
+        }
+    }
+}
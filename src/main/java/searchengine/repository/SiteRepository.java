@@ -1,18 +1,37 @@
 package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.Site;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface SiteRepository extends JpaRepository<Site, Integer> {
 
-    @Transactional
-    void deleteByUrl(String url);
+    @Query(nativeQuery = true,
+            value = "select * from site where url = :url and active")
+    Optional<Site> findActiveByUrl(String url);
+
+    @Query(nativeQuery = true,
+            value = "select * from site where active")
+    List<Site> findAllActive();
 
-    Optional<Site> findByUrl(String url);
+    @Query(nativeQuery = true,
+            value = "select * from site where url = :url and not active")
+    List<Site> findInactiveByUrl(String url);
 
+    /**
+     * Делает поколение {@code siteId} активным, а {@code currentSiteId} - неактивным одним запросом.
+     * Сначала обновляется активная строка, иначе уникальный ключ active_url увидел бы два активных поколения.
+     */
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true,
+            value = "update site set active = (id = :siteId) where id in (:siteId, :currentSiteId) order by active desc")
+    void activate(int siteId, int currentSiteId);
 }
@@ -0,0 +1,167 @@
+package searchengine.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import searchengine.search.TopK.ScoredPage;
+
+import java.util.*;
+
+/**
+ * Оценка страниц по BM25: редкие леммы весят больше частых (IDF), а вклад частоты леммы
+ * на странице насыщается и нормируется на длину страницы относительно средней по {@link CorpusStatistics}.
+ * <p>
+ * Лучшие страницы отбираются с отсечением в духе MaxScore для запроса, где нужны все леммы.
+ * Кандидаты берутся из списка самой редкой леммы: он короче остальных, каждая подходящая страница в нём есть,
+ * а rank читается вместе со списком. Остальные леммы проверяются у кандидатов от большей верхней границы вклада
+ * к меньшей. Кандидат отбрасывается, как только даже максимальный вклад оставшихся лемм не поднимет его
+ * до худшей из уже отобранных страниц. Леммы с малой границей (частые, с малым IDF) поэтому запрашиваются
+ * только для немногих страниц, а их полные списки не читаются вовсе. Страница без одной из лемм тоже выбывает.
+ */
+@Component
+public class Bm25Scorer {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int BLOCK_SIZE = 1000;
+    // запас на погрешность сложения: граница и итоговая оценка суммируются в разном порядке
+    private static final double BOUND_SLACK = 1e-9;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    /**
+     * Страницы со всеми леммами {@code terms} с {@code k} наибольшими оценками, от лучшей к худшей.
+     * Результат совпадает с полной оценкой всех таких страниц.
+     */
+    public List<ScoredPage> topPages(List<Term> terms, int k, CorpusStatistics statistics) {
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        Term rarest = terms.stream().min(Comparator.comparingInt(Term::frequency)).orElseThrow();
+        List<TermWeight> weights = new ArrayList<>();
+        weights.add(weight(rarest, statistics));
+        terms.stream()
+                .filter(term -> term != rarest)
+                .map(term -> weight(term, statistics))
+                .sorted(Comparator.comparingDouble(TermWeight::upperBound).reversed())
+                .forEach(weights::add);
+
+        PostingList candidates = searchIndex.findPostings(rarest);
+        double[] remainingBounds = remainingBounds(weights);
+        TopK topK = new TopK(Math.min(k, candidates.size()));
+        for (int from = 0; from < candidates.size(); from += BLOCK_SIZE) {
+            int to = Math.min(candidates.size(), from + BLOCK_SIZE);
+            scoreBlock(weights, remainingBounds, Arrays.copyOfRange(candidates.pageIds(), from, to),
+                    Arrays.copyOfRange(candidates.ranks(), from, to), topK);
+        }
+        return topK.toSortedList();
+    }
+
+    /**
+     * Страницы из {@code pageIds} (по возрастанию id, все содержат каждую лемму) с {@code k} наибольшими оценками,
+     * от лучшей к худшей. Для кандидатов, уже отобранных иначе, например проверкой фраз.
+     */
+    public List<ScoredPage> topPages(List<Term> terms, int[] pageIds, int k, CorpusStatistics statistics) {
+        List<TermWeight> weights = terms.stream()
+                .map(term -> weight(term, statistics))
+                .sorted(Comparator.comparingDouble(TermWeight::upperBound).reversed())
+                .toList();
+
+        double[] remainingBounds = remainingBounds(weights);
+        TopK topK = new TopK(Math.min(k, pageIds.length));
+        for (int from = 0; from < pageIds.length; from += BLOCK_SIZE) {
+            scoreBlock(weights, remainingBounds, Arrays.copyOfRange(pageIds, from, Math.min(pageIds.length, from + BLOCK_SIZE)), null, topK);
+        }
+        return topK.toSortedList();
+    }
+
+    private static double[] remainingBounds(List<TermWeight> weights) {
+        double[] remainingBounds = new double[weights.size() + 1];
+        for (int t = weights.size() - 1; t >= 0; t--) {
+            remainingBounds[t] = remainingBounds[t + 1] + weights.get(t).upperBound();
+        }
+        return remainingBounds;
+    }
+
+    /**
+     * @param firstFrequencies rank первой леммы на страницах блока, если он уже прочитан вместе со списком, иначе null
+     */
+    private void scoreBlock(List<TermWeight> weights, double[] remainingBounds, int[] block, float[] firstFrequencies, TopK topK) {
+        int[] lengths = searchIndex.documentLengths(block);
+        double[] scores = new double[block.length];
+        int[] alive = new int[block.length];
+        int aliveCount = block.length;
+        for (int i = 0; i < block.length; i++) {
+            alive[i] = i;
+        }
+
+        double threshold = topK.threshold() - BOUND_SLACK;
+        for (int t = 0; t < weights.size() && aliveCount > 0; t++) {
+            int kept = 0;
+            for (int j = 0; j < aliveCount; j++) {
+                if (scores[alive[j]] + remainingBounds[t] >= threshold) {
+                    alive[kept++] = alive[j];
+                }
+            }
+            aliveCount = kept;
+            if (aliveCount == 0) {
+                break;
+            }
+
+            TermWeight weight = weights.get(t);
+            float[] frequencies = new float[aliveCount];
+            if (t == 0 && firstFrequencies != null) {
+                for (int j = 0; j < aliveCount; j++) {
+                    frequencies[j] = firstFrequencies[alive[j]];
+                }
+            } else {
+                int[] alivePageIds = new int[aliveCount];
+                for (int j = 0; j < aliveCount; j++) {
+                    alivePageIds[j] = block[alive[j]];
+                }
+                frequencies = searchIndex.termFrequencies(List.of(weight.term()), alivePageIds)[0];
+            }
+
+            kept = 0;
+            for (int j = 0; j < aliveCount; j++) {
+                if (frequencies[j] > 0) {
+                    scores[alive[j]] += weight.score(frequencies[j], lengths[alive[j]]);
+                    alive[kept++] = alive[j];
+                }
+            }
+            aliveCount = kept;
+        }
+
+        for (int j = 0; j < aliveCount; j++) {
+            topK.offer(block[alive[j]], scores[alive[j]]);
+        }
+    }
+
+    private static TermWeight weight(Term term, CorpusStatistics statistics) {
+        double idf = idf(statistics.documentFrequency(term), statistics.documents().documentCount());
+        // наименьшая норма длины 1 - B у пустой страницы; без известного max rank вклад ограничен насыщением (K1 + 1)
+        double upperBound = term.maxRank() == Term.UNKNOWN_MAX_RANK
+                ? idf * (K1 + 1)
+                : idf * term.maxRank() * (K1 + 1) / (term.maxRank() + K1 * (1 - B));
+        return new TermWeight(term, idf, statistics.documents().averageLength(), upperBound);
+    }
+
+    /**
+     * IDF в варианте Lucene: всегда положительный, даже для лемм, которые есть почти на каждой странице.
+     */
+    static double idf(int documentFrequency, int documentCount) {
+        int count = Math.max(documentCount, documentFrequency);
+        return Math.log(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private record TermWeight(Term term, double idf, double averageLength, double upperBound) {
+
+        double score(float frequency, int length) {
+            if (frequency == 0) {
+                return 0;
+            }
+            double lengthNorm = averageLength > 0 ? 1 - B + B * length / averageLength : 1.0;
+            return idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package searchengine.search;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Статистика BM25 по всем сайтам, среди которых идёт поиск: число страниц, сумма длин
+ * и число страниц с каждой леммой запроса. Общая статистика делает оценки страниц разных сайтов сравнимыми.
+ */
+public record CorpusStatistics(SiteStatistics documents, Map<String, Integer> documentFrequencies) {
+
+    /**
+     * @param terms леммы запроса, найденные на этих сайтах
+     */
+    public static CorpusStatistics of(SearchIndex searchIndex, Collection<Integer> siteIds, Collection<Term> terms) {
+        int documentCount = 0;
+        long totalTokens = 0;
+        for (Integer siteId : siteIds) {
+            SiteStatistics statistics = searchIndex.siteStatistics(siteId);
+            documentCount += statistics.documentCount();
+            totalTokens += statistics.totalTokens();
+        }
+
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        terms.forEach(term -> documentFrequencies.merge(term.lemma(), term.frequency(), Integer::sum));
+        return new CorpusStatistics(new SiteStatistics(documentCount, totalTokens), documentFrequencies);
+    }
+
+    public int documentFrequency(Term term) {
+        return documentFrequencies.getOrDefault(term.lemma(), term.frequency());
+    }
+}
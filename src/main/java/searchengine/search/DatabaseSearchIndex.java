@@ -0,0 +1,151 @@
+package searchengine.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.SitesList;
+import searchengine.model.Lemma;
+import searchengine.repository.IndexRepository;
+import searchengine.repository.IndexRepository.PageLemmaPositions;
+import searchengine.repository.IndexRepository.PageLemmaRank;
+import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageRepository;
+import searchengine.repository.PageRepository.PageLength;
+import searchengine.repository.SiteRepository;
+import searchengine.util.DeltaCoding;
+
+import java.util.*;
+
+/**
+ * Поиск по таблицам lemma и index в MySQL.
+ */
+@Component
+@ConditionalOnProperty(prefix = "search-settings", name = "engine", havingValue = "database", matchIfMissing = true)
+public class DatabaseSearchIndex implements SearchIndex {
+
+    @Autowired
+    private LemmaRepository lemmaRepository;
+    @Autowired
+    private IndexRepository indexRepository;
+    @Autowired
+    private PageRepository pageRepository;
+    @Autowired
+    private SiteRepository siteRepository;
+    @Autowired
+    private SitesList sitesList;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Term findTerm(int siteId, String lemma) {
+        Lemma lemmaModel = lemmaRepository.customSelectFromLemmaDB(siteId, lemma);
+
+        if (lemmaModel == null) {
+            return null;
+        }
+        float maxRank = lemmaModel.getMaxRank() == null ? Term.UNKNOWN_MAX_RANK : lemmaModel.getMaxRank();
+        return new Term(lemmaModel.getSiteId().getId(), lemmaModel.getLemma(), lemmaModel.getId(), lemmaModel.getFrequency(), maxRank);
+    }
+
+    /**
+     * Список читается из индекса (lemma_id, page_id, rank) без обращения к строкам таблицы.
+     */
+    @Override
+    public PostingList findPostings(Term term) {
+        List<PageLemmaRank> postings = indexRepository.findPostingsByLemmaId(term.lemmaId());
+        int[] pageIds = new int[postings.size()];
+        float[] ranks = new float[postings.size()];
+        for (int i = 0; i < pageIds.length; i++) {
+            pageIds[i] = postings.get(i).getPageId();
+            ranks[i] = postings.get(i).getRank();
+        }
+        return new PostingList(pageIds, ranks);
+    }
+
+    /**
+     * Считается в базе: список самой редкой леммы проверяется по уникальному ключу (page_id, lemma_id)
+     * для остальных, и списки частых лемм не передаются приложению.
+     */
+    @Override
+    public int countPages(List<Term> terms) {
+        if (terms.isEmpty()) {
+            return 0;
+        }
+        List<Term> sorted = terms.stream().sorted(Comparator.comparingInt(Term::frequency)).toList();
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM `index` i WHERE i.lemma_id = ?");
+        Object[] args = new Object[sorted.size()];
+        args[0] = sorted.get(0).lemmaId();
+        for (int t = 1; t < sorted.size(); t++) {
+            sql.append(" AND EXISTS (SELECT 1 FROM `index` o WHERE o.page_id = i.page_id AND o.lemma_id = ?)");
+            args[t] = sorted.get(t).lemmaId();
+        }
+        Integer count = jdbcTemplate.queryForObject(sql.toString(), Integer.class, args);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public float[][] termFrequencies(List<Term> terms, int[] pageIds) {
+        Map<Integer, Integer> termPositions = new HashMap<>();
+        for (int t = 0; t < terms.size(); t++) {
+            termPositions.put(terms.get(t).lemmaId(), t);
+        }
+
+        float[][] result = new float[terms.size()][pageIds.length];
+        for (PageLemmaRank rank : indexRepository.findRanksByPageIds(new ArrayList<>(termPositions.keySet()), boxed(pageIds))) {
+            int page = Arrays.binarySearch(pageIds, rank.getPageId());
+            if (page >= 0) {
+                result[termPositions.get(rank.getLemmaId())][page] = rank.getRank();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int[] documentLengths(int[] pageIds) {
+        int[] result = new int[pageIds.length];
+        for (PageLength length : pageRepository.findTokenCountsByIds(boxed(pageIds))) {
+            int page = Arrays.binarySearch(pageIds, length.getId());
+            if (page >= 0) {
+                result[page] = length.getTokenCount();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean storesPositions() {
+        return sitesList.isStorePositions();
+    }
+
+    @Override
+    public int[][][] positions(List<Term> terms, int[] pageIds) {
+        if (!storesPositions()) {
+            return null;
+        }
+        Map<Integer, Integer> termPositions = new HashMap<>();
+        for (int t = 0; t < terms.size(); t++) {
+            termPositions.put(terms.get(t).lemmaId(), t);
+        }
+
+        int[][][] result = new int[terms.size()][pageIds.length][];
+        for (PageLemmaPositions positions : indexRepository.findPositionsByPageIds(new ArrayList<>(termPositions.keySet()), boxed(pageIds))) {
+            int page = Arrays.binarySearch(pageIds, positions.getPageId());
+            if (page >= 0 && positions.getPositions() != null) {
+                result[termPositions.get(positions.getLemmaId())][page] = DeltaCoding.decode(positions.getPositions());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SiteStatistics siteStatistics(int siteId) {
+        return siteRepository.findById(siteId)
+                .map(site -> new SiteStatistics(site.getIndexedPages(), site.getTotalTokens()))
+                .orElse(new SiteStatistics(0, 0));
+    }
+
+    private static List<Integer> boxed(int[] ids) {
+        return Arrays.stream(ids).boxed().toList();
+    }
+}
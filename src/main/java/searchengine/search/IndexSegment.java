@@ -0,0 +1,193 @@
+package searchengine.search;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Неизменяемый сегмент индекса, отображённый в память через {@link FileChannel#map}.
+ * <p>
+ * Формат файла:
+ * <ul>
+ *     <li>списки страниц: для каждого термина пары varint (разность id с предыдущей страницей, rank);</li>
+ *     <li>строки лемм в UTF-8;</li>
+ *     <li>словарь: записи по 28 байт (siteId, смещение и длина леммы, смещение списка, число страниц,
+ *     наибольший rank), упорядоченные по (siteId, lemma) для двоичного поиска;</li>
+ *     <li>страницы: записи по 12 байт (id, siteId, норма), упорядоченные по id;</li>
+ *     <li>заголовок в конце файла со смещениями разделов и поколением сегмента.</li>
+ * </ul>
+ * Все чтения абсолютные, поэтому один сегмент читают несколько потоков без блокировок.
+ */
+final class IndexSegment {
+
+    static final int MAGIC = 0x53454732;
+
+    private static final int FOOTER_SIZE = 44;
+    private static final int TERM_ENTRY_SIZE = 28;
+    private static final int PAGE_ENTRY_SIZE = 12;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int stringsOffset;
+    private final int termsOffset;
+    private final int termCount;
+    private final int pagesOffset;
+    private final int pageCount;
+    private final long generation;
+
+    private IndexSegment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        int footer = buffer.capacity() - FOOTER_SIZE;
+        if (footer < 0 || buffer.getInt(footer + 40) != MAGIC) {
+            throw new IOException("Повреждённый сегмент индекса: " + file);
+        }
+        stringsOffset = (int) buffer.getLong(footer);
+        termsOffset = (int) buffer.getLong(footer + 8);
+        termCount = buffer.getInt(footer + 16);
+        pagesOffset = (int) buffer.getLong(footer + 20);
+        pageCount = buffer.getInt(footer + 28);
+        generation = buffer.getLong(footer + 32);
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new IndexSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    long sizeBytes() {
+        return buffer.capacity();
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    int termSiteId(int term) {
+        return buffer.getInt(termsOffset + term * TERM_ENTRY_SIZE);
+    }
+
+    String termLemma(int term) {
+        int entry = termsOffset + term * TERM_ENTRY_SIZE;
+        byte[] lemma = new byte[buffer.getInt(entry + 8)];
+        buffer.get(stringsOffset + buffer.getInt(entry + 4), lemma);
+        return new String(lemma, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Число страниц в списке термина, включая страницы, удалённые после записи сегмента.
+     */
+    int docFreq(int term) {
+        return buffer.getInt(termsOffset + term * TERM_ENTRY_SIZE + 20);
+    }
+
+    /**
+     * Наибольший rank в списке термина; удалённые страницы могут его только завысить, поэтому он остаётся верхней границей.
+     */
+    int maxRank(int term) {
+        return buffer.getInt(termsOffset + term * TERM_ENTRY_SIZE + 24);
+    }
+
+    /**
+     * Номер записи словаря или -1, если термина в сегменте нет.
+     */
+    int findTerm(int siteId, String lemma) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = Integer.compare(termSiteId(middle), siteId);
+            if (compare == 0) {
+                compare = termLemma(middle).compareTo(lemma);
+            }
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    void readPostings(int term, PostingVisitor visitor) {
+        int position = (int) buffer.getLong(termsOffset + term * TERM_ENTRY_SIZE + 12);
+        int pageId = 0;
+        for (int i = docFreq(term); i > 0; i--) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            int rank = 0;
+            shift = 0;
+            do {
+                b = buffer.get(position++);
+                rank |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            pageId += delta;
+            visitor.visit(pageId, rank);
+        }
+    }
+
+    int pageCount() {
+        return pageCount;
+    }
+
+    int pageId(int page) {
+        return buffer.getInt(pagesOffset + page * PAGE_ENTRY_SIZE);
+    }
+
+    int pageSiteId(int page) {
+        return buffer.getInt(pagesOffset + page * PAGE_ENTRY_SIZE + 4);
+    }
+
+    int pageLength(int page) {
+        return buffer.getInt(pagesOffset + page * PAGE_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Номер записи страницы или -1, если страницы в сегменте нет.
+     */
+    int findPage(int pageId) {
+        int low = 0;
+        int high = pageCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = pageId(middle);
+            if (middleId < pageId) {
+                low = middle + 1;
+            } else if (middleId > pageId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    @FunctionalInterface
+    interface PostingVisitor {
+        void visit(int pageId, int rank);
+    }
+}
@@ -0,0 +1,47 @@
+package searchengine.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.util.TermCountMap;
+
+/**
+ * Чтение таблиц index и lemma постранично для построения индекса в памяти или в сегментах.
+ * Строки идут потоком в порядке id страниц, поэтому в памяти одновременно держатся леммы только одной страницы.
+ */
+@Component
+public class IndexTableLoader {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void forEachPage(PageConsumer consumer) {
+        JdbcTemplate streamingTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        // MySQL Connector/J отдаёт строки потоком только при fetchSize = Integer.MIN_VALUE
+        streamingTemplate.setFetchSize(Integer.MIN_VALUE);
+
+        int[] currentPage = {-1, -1};
+        TermCountMap[] currentLemmas = {new TermCountMap()};
+        streamingTemplate.query("SELECT l.site_id, i.page_id, l.lemma, i.`rank` FROM `index` i " +
+                "JOIN lemma l ON l.id = i.lemma_id ORDER BY i.page_id", resultSet -> {
+            int pageId = resultSet.getInt(2);
+            if (pageId != currentPage[1]) {
+                if (!currentLemmas[0].isEmpty()) {
+                    consumer.accept(currentPage[0], currentPage[1], currentLemmas[0]);
+                }
+                currentPage[0] = resultSet.getInt(1);
+                currentPage[1] = pageId;
+                currentLemmas[0] = new TermCountMap();
+            }
+            currentLemmas[0].add(resultSet.getString(3), Math.round(resultSet.getFloat(4)));
+        });
+        if (!currentLemmas[0].isEmpty()) {
+            consumer.accept(currentPage[0], currentPage[1], currentLemmas[0]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface PageConsumer {
+        void accept(int siteId, int pageId, TermCountMap lemmasCountMap);
+    }
+}
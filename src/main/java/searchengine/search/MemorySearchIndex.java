@@ -0,0 +1,198 @@
+package searchengine.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import searchengine.util.TermCountMap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Обратный индекс в памяти: для каждой леммы сайта - отсортированный массив id страниц
+ * и параллельный массив rank. Поиск не обращается к базе до выборки найденных страниц.
+ * При старте индекс загружается из таблиц lemma и index, дальше его поддерживает
+ * запись страниц при индексации.
+ */
+@Component
+@ConditionalOnProperty(prefix = "search-settings", name = "engine", havingValue = "memory")
+public class MemorySearchIndex implements SearchIndex {
+
+    private static final int NO_LEMMA_ID = -1;
+
+    @Autowired
+    private IndexTableLoader indexTableLoader;
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    private final Map<Integer, Map<String, Postings>> sites = new ConcurrentHashMap<>();
+    private final Map<Integer, IndexedPage> pages = new ConcurrentHashMap<>();
+    private final Map<Integer, SiteStatistics> siteStatistics = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        indexTableLoader.forEachPage((siteId, pageId, lemmasCountMap) -> addPages(siteId, Map.of(pageId, lemmasCountMap)));
+        searchResultCache.invalidate();
+    }
+
+    @Override
+    public Term findTerm(int siteId, String lemma) {
+        Postings postings = sites.getOrDefault(siteId, Map.of()).get(lemma);
+        int frequency = postings == null ? 0 : postings.size();
+        return frequency > 0 ? new Term(siteId, lemma, NO_LEMMA_ID, frequency, postings.maxRank()) : null;
+    }
+
+    @Override
+    public PostingList findPostings(Term term) {
+        Postings postings = postings(term);
+        return postings == null ? PostingList.EMPTY : postings.toPostingList();
+    }
+
+    @Override
+    public float[][] termFrequencies(List<Term> terms, int[] pageIds) {
+        float[][] result = new float[terms.size()][pageIds.length];
+        for (int t = 0; t < terms.size(); t++) {
+            Postings postings = postings(terms.get(t));
+            if (postings != null) {
+                postings.ranks(pageIds, result[t]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int[] documentLengths(int[] pageIds) {
+        int[] result = new int[pageIds.length];
+        for (int i = 0; i < pageIds.length; i++) {
+            IndexedPage page = pages.get(pageIds[i]);
+            result[i] = page == null ? 0 : page.length();
+        }
+        return result;
+    }
+
+    @Override
+    public SiteStatistics siteStatistics(int siteId) {
+        return siteStatistics.getOrDefault(siteId, new SiteStatistics(0, 0));
+    }
+
+    @Override
+    public synchronized void addPages(int siteId, Map<Integer, TermCountMap> pagesLemmas) {
+        Map<String, Postings> siteLemmas = sites.computeIfAbsent(siteId, id -> new ConcurrentHashMap<>());
+        pagesLemmas.forEach((pageId, lemmasCountMap) -> {
+            removePages(List.of(pageId));
+            lemmasCountMap.forEach((lemma, rank) ->
+                    siteLemmas.computeIfAbsent(lemma, key -> new Postings()).put(pageId, rank));
+            pages.put(pageId, new IndexedPage(siteId, lemmasCountMap.terms(), lemmasCountMap.totalCount()));
+            updateSiteStatistics(siteId, 1, lemmasCountMap.totalCount());
+        });
+    }
+
+    @Override
+    public synchronized void removePages(Collection<Integer> pageIds) {
+        for (Integer pageId : pageIds) {
+            IndexedPage page = pages.remove(pageId);
+            if (page == null) {
+                continue;
+            }
+            updateSiteStatistics(page.siteId(), -1, -page.length());
+            Map<String, Postings> siteLemmas = sites.getOrDefault(page.siteId(), Map.of());
+            for (String lemma : page.lemmas()) {
+                Postings postings = siteLemmas.get(lemma);
+                if (postings != null) {
+                    postings.remove(pageId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeSite(int siteId) {
+        sites.remove(siteId);
+        pages.values().removeIf(page -> page.siteId() == siteId);
+        siteStatistics.remove(siteId);
+    }
+
+    private void updateSiteStatistics(int siteId, int documents, long tokens) {
+        siteStatistics.merge(siteId, new SiteStatistics(documents, tokens), (current, delta) ->
+                new SiteStatistics(current.documentCount() + delta.documentCount(), current.totalTokens() + delta.totalTokens()));
+    }
+
+    private Postings postings(Term term) {
+        return sites.getOrDefault(term.siteId(), Map.of()).get(term.lemma());
+    }
+
+    private record IndexedPage(int siteId, List<String> lemmas, int length) {
+    }
+
+    /**
+     * Список страниц леммы, упорядоченный по id. Поиск получает копию массива,
+     * поэтому параллельная индексация не меняет данные под выполняющимся запросом.
+     */
+    private static class Postings {
+        private int[] pageIds = new int[4];
+        private float[] ranks = new float[4];
+        private int size;
+        private float maxRank;
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Наибольший rank за всё время: удаление страниц границу не уменьшает.
+         */
+        synchronized float maxRank() {
+            return maxRank;
+        }
+
+        synchronized PostingList toPostingList() {
+            return new PostingList(Arrays.copyOf(pageIds, size), Arrays.copyOf(ranks, size));
+        }
+
+        synchronized void put(int pageId, float rank) {
+            maxRank = Math.max(maxRank, rank);
+            int position = Arrays.binarySearch(pageIds, 0, size, pageId);
+            if (position >= 0) {
+                ranks[position] = rank;
+                return;
+            }
+            position = -position - 1;
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            System.arraycopy(pageIds, position, pageIds, position + 1, size - position);
+            System.arraycopy(ranks, position, ranks, position + 1, size - position);
+            pageIds[position] = pageId;
+            ranks[position] = rank;
+            size++;
+        }
+
+        synchronized void remove(int pageId) {
+            int position = Arrays.binarySearch(pageIds, 0, size, pageId);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(pageIds, position + 1, pageIds, position, size - position - 1);
+            System.arraycopy(ranks, position + 1, ranks, position, size - position - 1);
+            size--;
+        }
+
+        /**
+         * Записывает rank леммы для страниц {@code targetIds}, отсортированных по возрастанию.
+         */
+        synchronized void ranks(int[] targetIds, float[] result) {
+            int position = 0;
+            for (int i = 0; i < targetIds.length; i++) {
+                position = Arrays.binarySearch(pageIds, position, size, targetIds[i]);
+                if (position >= 0) {
+                    result[i] = ranks[position];
+                } else {
+                    position = -position - 1;
+                }
+            }
+        }
+    }
+}
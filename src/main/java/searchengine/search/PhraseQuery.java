@@ -0,0 +1,82 @@
+package searchengine.search;
+
+import searchengine.util.LemmaFinder;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Фраза запроса в кавычках: леммы слов и их смещения внутри фразы. Слова без леммы
+ * (предлоги, союзы, короткие) не проверяются, но сохраняют расстояние между остальными словами.
+ */
+public record PhraseQuery(List<String> lemmas, int[] offsets) {
+
+    private static final Pattern QUOTED = Pattern.compile("\"([^\"]+)\"");
+
+    /**
+     * Фразы из двух и более лемм; одиночное слово в кавычках - обычное слово запроса.
+     */
+    public static List<PhraseQuery> parse(String query, LemmaFinder lemmaFinder) {
+        List<PhraseQuery> phrases = new ArrayList<>();
+        Matcher matcher = QUOTED.matcher(query);
+        while (matcher.find()) {
+            String phrase = matcher.group(1);
+            int[] wordOffsets = LemmaFinder.wordOffsets(phrase);
+
+            List<String> lemmas = new ArrayList<>();
+            int[] offsets = new int[wordOffsets.length];
+            for (int i = 0; i < wordOffsets.length; i++) {
+                String lemma = lemmaFinder.normalFormOf(phrase.substring(wordOffsets[i], LemmaFinder.wordEnd(phrase, wordOffsets[i])));
+                if (lemma != null) {
+                    offsets[lemmas.size()] = i;
+                    lemmas.add(lemma);
+                }
+            }
+            if (lemmas.size() > 1) {
+                phrases.add(new PhraseQuery(lemmas, Arrays.copyOf(offsets, lemmas.size())));
+            }
+        }
+        return phrases;
+    }
+
+    /**
+     * Есть ли на странице все леммы фразы подряд с нужными смещениями.
+     *
+     * @param positions позиции лемм на странице по возрастанию; лемма без позиций не проверяется
+     */
+    public boolean matches(Map<String, int[]> positions) {
+        int anchor = -1;
+        for (int i = 0; i < lemmas.size() && anchor < 0; i++) {
+            if (positions.get(lemmas.get(i)) != null) {
+                anchor = i;
+            }
+        }
+        if (anchor < 0) {
+            return true;
+        }
+
+        for (int position : positions.get(lemmas.get(anchor))) {
+            int start = position - offsets[anchor];
+            boolean found = true;
+            for (int i = 0; i < lemmas.size() && found; i++) {
+                int[] lemmaPositions = positions.get(lemmas.get(i));
+                found = lemmaPositions == null || Arrays.binarySearch(lemmaPositions, start + offsets[i]) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PhraseQuery phrase && lemmas.equals(phrase.lemmas) && Arrays.equals(offsets, phrase.offsets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lemmas.hashCode() + Arrays.hashCode(offsets);
+    }
+}
@@ -0,0 +1,13 @@
+package searchengine.search;
+
+/**
+ * Список страниц леммы по возрастанию id и rank леммы на каждой из них.
+ */
+public record PostingList(int[] pageIds, float[] ranks) {
+
+    public static final PostingList EMPTY = new PostingList(new int[0], new float[0]);
+
+    public int size() {
+        return pageIds.length;
+    }
+}
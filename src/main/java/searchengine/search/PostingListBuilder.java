@@ -0,0 +1,36 @@
+package searchengine.search;
+
+import java.util.Arrays;
+
+/**
+ * Накопитель пар (id страницы, rank). Пара упакована в long с id в старших битах,
+ * поэтому сортировка массива упорядочивает список по id страниц.
+ */
+final class PostingListBuilder {
+
+    private long[] postings = new long[16];
+    private int size;
+
+    void add(int pageId, int rank) {
+        if (size == postings.length) {
+            postings = Arrays.copyOf(postings, size * 2);
+        }
+        postings[size++] = ((long) pageId << 32) | (rank & 0xFFFFFFFFL);
+    }
+
+    void sort() {
+        Arrays.sort(postings, 0, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int pageId(int i) {
+        return (int) (postings[i] >>> 32);
+    }
+
+    int rank(int i) {
+        return (int) postings[i];
+    }
+}
@@ -0,0 +1,58 @@
+package searchengine.search;
+
+import java.util.List;
+
+/**
+ * Учёт близости слов запроса: страницы, где все слова стоят рядом, поднимаются выше.
+ */
+public final class Proximity {
+
+    private static final double WEIGHT = 0.5;
+
+    private Proximity() {
+    }
+
+    /**
+     * Длина кратчайшего отрезка текста (в словах минус один), содержащего хотя бы одно вхождение
+     * каждой леммы; {@link Integer#MAX_VALUE}, если у какой-то леммы нет позиций.
+     *
+     * @param positions позиции каждой леммы по возрастанию
+     */
+    public static int minimalSpan(List<int[]> positions) {
+        int[] cursors = new int[positions.size()];
+        for (int[] lemmaPositions : positions) {
+            if (lemmaPositions == null || lemmaPositions.length == 0) {
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            int minLemma = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                int position = positions.get(i)[cursors[i]];
+                if (position < min) {
+                    min = position;
+                    minLemma = i;
+                }
+                max = Math.max(max, position);
+            }
+            best = Math.min(best, max - min);
+            if (++cursors[minLemma] == positions.get(minLemma).length) {
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Множитель оценки: 1 + {@link #WEIGHT}, когда слова стоят подряд, и стремится к 1 с ростом расстояния.
+     */
+    public static double boost(int span, int lemmaCount) {
+        if (span == Integer.MAX_VALUE || lemmaCount < 2) {
+            return 1.0;
+        }
+        return 1.0 + WEIGHT * (lemmaCount - 1) / Math.max(span, lemmaCount - 1);
+    }
+}
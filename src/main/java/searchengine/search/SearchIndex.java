@@ -0,0 +1,81 @@
+package searchengine.search;
+
+import searchengine.util.PostingLists;
+import searchengine.util.TermCountMap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Обратный индекс, по которому выполняется поиск.
+ * Реализация выбирается настройкой {@code search-settings.engine}.
+ */
+public interface SearchIndex {
+
+    /**
+     * Лемма на указанном сайте; {@code null}, если не найдена.
+     */
+    Term findTerm(int siteId, String lemma);
+
+    /**
+     * Страницы, содержащие лемму, вместе с её rank: одним чтением списка.
+     */
+    PostingList findPostings(Term term);
+
+    /**
+     * Отсортированные по возрастанию id страниц, содержащих лемму.
+     */
+    default int[] findPageIds(Term term) {
+        return findPostings(term).pageIds();
+    }
+
+    /**
+     * Число страниц, содержащих все леммы.
+     */
+    default int countPages(List<Term> terms) {
+        int[] pageIds = null;
+        for (Term term : terms) {
+            pageIds = pageIds == null ? findPageIds(term) : PostingLists.intersect(pageIds, findPageIds(term));
+        }
+        return pageIds == null ? 0 : pageIds.length;
+    }
+
+    /**
+     * Частоты лемм на страницах: {@code [номер леммы в terms][номер страницы в pageIds]}, 0 - леммы на странице нет.
+     */
+    float[][] termFrequencies(List<Term> terms, int[] pageIds);
+
+    /**
+     * Длины страниц {@code pageIds} в словах, в том же порядке.
+     */
+    int[] documentLengths(int[] pageIds);
+
+    SiteStatistics siteStatistics(int siteId);
+
+    /**
+     * Хранит ли индекс позиции лемм. Без них {@link #positions} возвращает {@code null},
+     * и запрос не должен платить за фразы и учёт близости.
+     */
+    default boolean storesPositions() {
+        return false;
+    }
+
+    /**
+     * Позиции лемм на страницах: {@code [номер леммы в terms][номер страницы в pageIds]},
+     * {@code null} для страниц, проиндексированных без позиций. Вся таблица {@code null},
+     * если индекс позиции не хранит.
+     */
+    default int[][][] positions(List<Term> terms, int[] pageIds) {
+        return null;
+    }
+
+    default void addPages(int siteId, Map<Integer, TermCountMap> pagesLemmas) {
+    }
+
+    default void removePages(Collection<Integer> pageIds) {
+    }
+
+    default void removeSite(int siteId) {
+    }
+}
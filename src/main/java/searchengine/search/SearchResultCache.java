@@ -0,0 +1,51 @@
+package searchengine.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import searchengine.dto.search.SearchResponse;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш ответов поиска. Любое изменение данных, видимых поиску (запись в активное поколение сайта,
+ * переключение поколений), вызывает {@link #invalidate()}, который очищает кэш и увеличивает поколение индекса.
+ * Поколение входит в ключ и берётся до начала поиска, поэтому ответ, посчитанный во время записи, сохраняется под старым поколением и больше не находится.
+ */
+@Component
+public class SearchResultCache {
+
+    private final AtomicLong generation = new AtomicLong();
+    private final Cache<Key, SearchResponse> responses;
+
+    public SearchResultCache(@Value("${search-settings.cache-size:1000}") int cacheSize) {
+        responses = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+    }
+
+    /**
+     * @param lemmas леммы запроса без повторов в любом порядке
+     */
+    public Key key(List<String> lemmas, List<PhraseQuery> phrases, String site, int offset, int limit) {
+        return new Key(generation.get(), lemmas.stream().distinct().sorted().toList(), phrases, site, offset, limit);
+    }
+
+    public SearchResponse get(Key key) {
+        return responses.getIfPresent(key);
+    }
+
+    public void put(Key key, SearchResponse response) {
+        responses.put(key, response);
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        responses.invalidateAll();
+    }
+
+    public record Key(long generation, List<String> lemmas, List<PhraseQuery> phrases, String site, int offset, int limit) {
+    }
+}
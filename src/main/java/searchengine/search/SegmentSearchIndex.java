@@ -0,0 +1,581 @@
+package searchengine.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import searchengine.util.TermCountMap;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Индекс из неизменяемых сегментов на диске ({@link IndexSegment}).
+ * <p>
+ * Новые страницы копятся в буфере в памяти и по {@link #FLUSH_PAGES} страниц
+ * (или раз в {@link #FLUSH_INTERVAL_SECONDS} секунд) записываются новым сегментом.
+ * Сегменты и буферы пронумерованы поколениями. Удаление страницы запоминает текущее поколение
+ * буфера: все копии страницы из более старых поколений считаются удалёнными,
+ * поэтому сегменты никогда не переписываются на месте. Когда сегментов больше {@link #MAX_SEGMENTS},
+ * фоновый поток сливает самые маленькие из них, выбрасывая удалённые страницы.
+ * <p>
+ * Список сегментов и удаления сохраняются в файл {@link #COMMIT_FILE}, который заменяется атомарно.
+ * При перезапуске сегменты только отображаются в память; если файла нет или он записан предыдущей версией формата,
+ * индекс строится из таблиц lemma и index. Страницы из буфера, не записанные до аварийной остановки, теряются.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "search-settings", name = "engine", havingValue = "segments")
+public class SegmentSearchIndex implements SearchIndex {
+
+    private static final int NO_LEMMA_ID = -1;
+    private static final int FLUSH_PAGES = 1000;
+    private static final int FLUSH_INTERVAL_SECONDS = 30;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int MERGE_FACTOR = 4;
+    private static final int COMMIT_MAGIC = 0x434F4D32;
+    // commit версии, сегменты которой ещё не хранили наибольший rank термина
+    private static final int PREVIOUS_COMMIT_MAGIC = 0x434F4D31;
+    private static final String COMMIT_FILE = "segments.commit";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int STOP_AWAIT_TIME_SECONDS = 60;
+
+    @Autowired
+    private IndexTableLoader indexTableLoader;
+    @Autowired
+    private SearchResultCache searchResultCache;
+    @Value("${search-settings.segments-path:index-segments}")
+    private String segmentsPath;
+
+    private Path directory;
+    private long nextSegmentId;
+    private volatile Snapshot snapshot = new Snapshot(List.of(), List.of(new WriteBuffer(0)));
+    private final Map<Integer, Long> deletes = new ConcurrentHashMap<>();
+    // удаления без новых страниц не создают сегмент, но тоже должны попасть в commit
+    private boolean uncommittedDeletes;
+    private final Map<Integer, SiteStatistics> siteStatistics = new ConcurrentHashMap<>();
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(daemonThread("index-segments-writer"));
+    private final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(daemonThread("index-segments-flush"));
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void open() throws IOException {
+        directory = Path.of(segmentsPath);
+        Files.createDirectories(directory);
+
+        if (Files.exists(directory.resolve(COMMIT_FILE)) && readCommit()) {
+            deleteUnreferencedSegments();
+            countSiteStatistics();
+        } else {
+            deleteUnreferencedSegments();
+            loadFromDatabase();
+        }
+        searchResultCache.invalidate();
+
+        flushTimer.scheduleWithFixedDelay(() -> writer.execute(() -> flushAndMerge(true)),
+                FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        flushTimer.shutdownNow();
+        writer.execute(() -> flushAndMerge(true));
+        writer.shutdown();
+        try {
+            writer.awaitTermination(STOP_AWAIT_TIME_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Число страниц считается только по живым страницам: пока удалений нет, оно берётся из словаря сегмента,
+     * иначе список страниц термина просматривается. Наибольший rank хранится в словаре сегмента
+     * и для буферов считается при просмотре.
+     */
+    @Override
+    public Term findTerm(int siteId, String lemma) {
+        Snapshot current = snapshot;
+        int frequency = 0;
+        int maxRank = 0;
+        for (IndexSegment segment : current.segments()) {
+            int term = segment.findTerm(siteId, lemma);
+            if (term < 0) {
+                continue;
+            }
+            if (deletes.isEmpty()) {
+                frequency += segment.docFreq(term);
+            } else {
+                int[] live = new int[1];
+                segment.readPostings(term, (pageId, rank) -> {
+                    if (isLive(pageId, segment.generation())) {
+                        live[0]++;
+                    }
+                });
+                frequency += live[0];
+            }
+            maxRank = Math.max(maxRank, segment.maxRank(term));
+        }
+        for (WriteBuffer buffer : current.buffers()) {
+            for (Map.Entry<Integer, BufferedPage> page : buffer.pages.entrySet()) {
+                int rank = page.getValue().lemmas().get(lemma);
+                if (page.getValue().siteId() == siteId && rank > 0 && isLive(page.getKey(), buffer.generation)) {
+                    frequency++;
+                    maxRank = Math.max(maxRank, rank);
+                }
+            }
+        }
+        return frequency > 0 ? new Term(siteId, lemma, NO_LEMMA_ID, frequency, maxRank) : null;
+    }
+
+    @Override
+    public PostingList findPostings(Term term) {
+        PostingListBuilder postings = collectPostings(term);
+        int[] pageIds = new int[postings.size()];
+        float[] ranks = new float[postings.size()];
+        for (int i = 0; i < pageIds.length; i++) {
+            pageIds[i] = postings.pageId(i);
+            ranks[i] = postings.rank(i);
+        }
+        return new PostingList(pageIds, ranks);
+    }
+
+    @Override
+    public float[][] termFrequencies(List<Term> terms, int[] pageIds) {
+        float[][] result = new float[terms.size()][pageIds.length];
+        for (int t = 0; t < terms.size(); t++) {
+            PostingListBuilder postings = collectPostings(terms.get(t));
+            int position = 0;
+            for (int i = 0; i < pageIds.length && position < postings.size(); i++) {
+                while (position < postings.size() && postings.pageId(position) < pageIds[i]) {
+                    position++;
+                }
+                if (position < postings.size() && postings.pageId(position) == pageIds[i]) {
+                    result[t][i] = postings.rank(position);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int[] documentLengths(int[] pageIds) {
+        Snapshot current = snapshot;
+        int[] result = new int[pageIds.length];
+        for (int i = 0; i < pageIds.length; i++) {
+            LivePage page = findLivePage(current, pageIds[i]);
+            result[i] = page == null ? 0 : page.length();
+        }
+        return result;
+    }
+
+    @Override
+    public SiteStatistics siteStatistics(int siteId) {
+        return siteStatistics.getOrDefault(siteId, new SiteStatistics(0, 0));
+    }
+
+    @Override
+    public synchronized void addPages(int siteId, Map<Integer, TermCountMap> pagesLemmas) {
+        WriteBuffer active = snapshot.active();
+        pagesLemmas.forEach((pageId, lemmasCountMap) -> {
+            forgetLivePage(pageId);
+            deletes.put(pageId, active.generation);
+            active.pages.put(pageId, new BufferedPage(siteId, lemmasCountMap));
+            updateSiteStatistics(siteId, 1, lemmasCountMap.totalCount());
+        });
+        if (active.pages.size() >= FLUSH_PAGES) {
+            writer.execute(() -> flushAndMerge(false));
+        }
+    }
+
+    @Override
+    public synchronized void removePages(Collection<Integer> pageIds) {
+        WriteBuffer active = snapshot.active();
+        for (Integer pageId : pageIds) {
+            forgetLivePage(pageId);
+            active.pages.remove(pageId);
+            deletes.put(pageId, active.generation);
+        }
+        uncommittedDeletes = true;
+    }
+
+    @Override
+    public synchronized void removeSite(int siteId) {
+        Snapshot current = snapshot;
+        List<Integer> pageIds = new ArrayList<>();
+        for (IndexSegment segment : current.segments()) {
+            for (int page = 0; page < segment.pageCount(); page++) {
+                if (segment.pageSiteId(page) == siteId) {
+                    pageIds.add(segment.pageId(page));
+                }
+            }
+        }
+        for (WriteBuffer buffer : current.buffers()) {
+            buffer.pages.forEach((pageId, page) -> {
+                if (page.siteId() == siteId) {
+                    pageIds.add(pageId);
+                }
+            });
+        }
+        removePages(pageIds);
+        siteStatistics.remove(siteId);
+    }
+
+    private LivePage findLivePage(Snapshot current, int pageId) {
+        for (WriteBuffer buffer : current.buffers()) {
+            BufferedPage page = buffer.pages.get(pageId);
+            if (page != null && isLive(pageId, buffer.generation)) {
+                return new LivePage(page.siteId(), page.lemmas().totalCount());
+            }
+        }
+        for (IndexSegment segment : current.segments()) {
+            int page = segment.findPage(pageId);
+            if (page >= 0 && isLive(pageId, segment.generation())) {
+                return new LivePage(segment.pageSiteId(page), segment.pageLength(page));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Убирает из статистики сайта текущую копию страницы перед её удалением или заменой.
+     */
+    private void forgetLivePage(int pageId) {
+        LivePage page = findLivePage(snapshot, pageId);
+        if (page != null) {
+            updateSiteStatistics(page.siteId(), -1, -page.length());
+        }
+    }
+
+    private void countSiteStatistics() {
+        for (IndexSegment segment : snapshot.segments()) {
+            for (int page = 0; page < segment.pageCount(); page++) {
+                if (isLive(segment.pageId(page), segment.generation())) {
+                    updateSiteStatistics(segment.pageSiteId(page), 1, segment.pageLength(page));
+                }
+            }
+        }
+    }
+
+    private void updateSiteStatistics(int siteId, int documents, long tokens) {
+        siteStatistics.merge(siteId, new SiteStatistics(documents, tokens), (current, delta) ->
+                new SiteStatistics(current.documentCount() + delta.documentCount(), current.totalTokens() + delta.totalTokens()));
+    }
+
+    private PostingListBuilder collectPostings(Term term) {
+        Snapshot current = snapshot;
+        PostingListBuilder postings = new PostingListBuilder();
+
+        for (IndexSegment segment : current.segments()) {
+            int entry = segment.findTerm(term.siteId(), term.lemma());
+            if (entry >= 0) {
+                segment.readPostings(entry, (pageId, rank) -> {
+                    if (isLive(pageId, segment.generation())) {
+                        postings.add(pageId, rank);
+                    }
+                });
+            }
+        }
+        for (WriteBuffer buffer : current.buffers()) {
+            buffer.pages.forEach((pageId, page) -> {
+                int rank = page.lemmas().get(term.lemma());
+                if (page.siteId() == term.siteId() && rank > 0 && isLive(pageId, buffer.generation)) {
+                    postings.add(pageId, rank);
+                }
+            });
+        }
+        postings.sort();
+        return postings;
+    }
+
+    private boolean isLive(int pageId, long generation) {
+        return deletes.getOrDefault(pageId, Long.MIN_VALUE) <= generation;
+    }
+
+    /**
+     * @param force записать буфер любого размера (по таймеру и при остановке), а не только заполненный
+     */
+    private void flushAndMerge(boolean force) {
+        try {
+            flush(force);
+            while (snapshot.segments().size() > MAX_SEGMENTS) {
+                merge();
+            }
+        } catch (Exception e) {
+            log.error("Не удалось записать или слить сегменты индекса в {}", directory, e);
+        }
+    }
+
+    private void flush(boolean force) throws IOException {
+        WriteBuffer frozen;
+        synchronized (this) {
+            frozen = snapshot.active();
+            if (frozen.pages.isEmpty() && force && uncommittedDeletes) {
+                writeCommit();
+                return;
+            }
+            if (frozen.pages.isEmpty() || !force && frozen.pages.size() < FLUSH_PAGES) {
+                return;
+            }
+            List<WriteBuffer> buffers = new ArrayList<>(snapshot.buffers());
+            buffers.add(new WriteBuffer(frozen.generation + 1));
+            snapshot = new Snapshot(snapshot.segments(), buffers);
+        }
+
+        Map<TermKey, PostingListBuilder> terms = new TreeMap<>();
+        new TreeMap<>(frozen.pages).forEach((pageId, page) -> page.lemmas().forEach((lemma, rank) ->
+                terms.computeIfAbsent(new TermKey(page.siteId(), lemma), key -> new PostingListBuilder()).add(pageId, rank)));
+
+        Path file = nextSegmentFile();
+        try (SegmentWriter segmentWriter = new SegmentWriter(file)) {
+            for (Map.Entry<TermKey, PostingListBuilder> term : terms.entrySet()) {
+                segmentWriter.addTerm(term.getKey().siteId(), term.getKey().lemma(), term.getValue());
+            }
+            frozen.pages.forEach((pageId, page) -> segmentWriter.addPage(pageId, page.siteId(), page.lemmas().totalCount()));
+            segmentWriter.finish(frozen.generation);
+        }
+        IndexSegment segment = IndexSegment.open(file);
+
+        synchronized (this) {
+            List<IndexSegment> segments = new ArrayList<>(snapshot.segments());
+            segments.add(segment);
+            List<WriteBuffer> buffers = new ArrayList<>(snapshot.buffers());
+            buffers.remove(frozen);
+            snapshot = new Snapshot(segments, buffers);
+            pruneDeletes();
+            writeCommit();
+        }
+    }
+
+    /**
+     * Сливает {@link #MERGE_FACTOR} самых маленьких сегментов. Результат получает
+     * старшее из их поколений: удаления, сделанные после слияния, относятся к более новому поколению
+     * буфера и продолжают действовать на слитый сегмент.
+     */
+    private void merge() throws IOException {
+        List<IndexSegment> inputs = snapshot.segments().stream()
+                .sorted(Comparator.comparingLong(IndexSegment::sizeBytes))
+                .limit(MERGE_FACTOR)
+                .toList();
+        long generation = inputs.stream().mapToLong(IndexSegment::generation).max().orElseThrow();
+
+        Path file = nextSegmentFile();
+        boolean empty;
+        try (SegmentWriter segmentWriter = new SegmentWriter(file)) {
+            empty = mergeSegments(inputs, segmentWriter);
+            segmentWriter.finish(generation);
+        }
+        IndexSegment merged = empty ? null : IndexSegment.open(file);
+
+        synchronized (this) {
+            List<IndexSegment> segments = new ArrayList<>(snapshot.segments());
+            segments.removeAll(inputs);
+            if (merged != null) {
+                segments.add(merged);
+            }
+            snapshot = new Snapshot(segments, snapshot.buffers());
+            pruneDeletes();
+            writeCommit();
+        }
+
+        if (empty) {
+            Files.deleteIfExists(file);
+        }
+        for (IndexSegment input : inputs) {
+            // отображение в память остаётся действительным для запросов, которые ещё читают сегмент
+            Files.deleteIfExists(input.file());
+        }
+    }
+
+    /**
+     * Слияние словарей сегментов по очереди с приоритетом; возвращает true, если живых страниц не осталось.
+     */
+    private boolean mergeSegments(List<IndexSegment> inputs, SegmentWriter segmentWriter) throws IOException {
+        PriorityQueue<TermCursor> cursors = new PriorityQueue<>(Comparator.comparing(TermCursor::key));
+        for (IndexSegment input : inputs) {
+            if (input.termCount() > 0) {
+                cursors.add(new TermCursor(input, 0));
+            }
+        }
+
+        while (!cursors.isEmpty()) {
+            TermKey key = cursors.peek().key();
+            PostingListBuilder postings = new PostingListBuilder();
+            while (!cursors.isEmpty() && cursors.peek().key().equals(key)) {
+                TermCursor cursor = cursors.poll();
+                IndexSegment segment = cursor.segment();
+                segment.readPostings(cursor.term(), (pageId, rank) -> {
+                    if (isLive(pageId, segment.generation())) {
+                        postings.add(pageId, rank);
+                    }
+                });
+                if (cursor.term() + 1 < segment.termCount()) {
+                    cursors.add(new TermCursor(segment, cursor.term() + 1));
+                }
+            }
+            if (postings.size() > 0) {
+                postings.sort();
+                segmentWriter.addTerm(key.siteId(), key.lemma(), postings);
+            }
+        }
+
+        boolean empty = true;
+        for (IndexSegment input : inputs) {
+            for (int page = 0; page < input.pageCount(); page++) {
+                if (isLive(input.pageId(page), input.generation())) {
+                    segmentWriter.addPage(input.pageId(page), input.pageSiteId(page), input.pageLength(page));
+                    empty = false;
+                }
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Удаление больше не нужно, если ни в одном более старом сегменте или буфере нет этой страницы.
+     */
+    private void pruneDeletes() {
+        Snapshot current = snapshot;
+        deletes.entrySet().removeIf(delete -> {
+            for (IndexSegment segment : current.segments()) {
+                if (segment.generation() < delete.getValue() && segment.findPage(delete.getKey()) >= 0) {
+                    return false;
+                }
+            }
+            for (WriteBuffer buffer : current.buffers()) {
+                if (buffer.generation < delete.getValue() && buffer.pages.containsKey(delete.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private void writeCommit() throws IOException {
+        Path temporary = directory.resolve(COMMIT_FILE + ".tmp");
+        Map<Integer, Long> deletesCopy = new HashMap<>(deletes);
+        uncommittedDeletes = false;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(COMMIT_MAGIC);
+            out.writeLong(snapshot.active().generation);
+            out.writeLong(nextSegmentId);
+            out.writeInt(snapshot.segments().size());
+            for (IndexSegment segment : snapshot.segments()) {
+                out.writeUTF(segment.file().getFileName().toString());
+            }
+            out.writeInt(deletesCopy.size());
+            for (Map.Entry<Integer, Long> delete : deletesCopy.entrySet()) {
+                out.writeInt(delete.getKey());
+                out.writeLong(delete.getValue());
+            }
+        }
+        Files.move(temporary, directory.resolve(COMMIT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return false, если commit записан предыдущей версией формата: тогда индекс строится заново из базы
+     */
+    private synchronized boolean readCommit() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(COMMIT_FILE))))) {
+            int magic = in.readInt();
+            if (magic == PREVIOUS_COMMIT_MAGIC) {
+                return false;
+            }
+            if (magic != COMMIT_MAGIC) {
+                throw new IOException("Повреждённый файл " + COMMIT_FILE);
+            }
+            long generation = in.readLong();
+            nextSegmentId = in.readLong();
+
+            List<IndexSegment> segments = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                segments.add(IndexSegment.open(directory.resolve(in.readUTF())));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                deletes.put(in.readInt(), in.readLong());
+            }
+            snapshot = new Snapshot(segments, List.of(new WriteBuffer(generation)));
+        }
+        return true;
+    }
+
+    /**
+     * Файлы, не попавшие в последний commit, остались от прерванной записи или слияния.
+     */
+    private void deleteUnreferencedSegments() throws IOException {
+        Set<Path> referenced = new HashSet<>();
+        snapshot.segments().forEach(segment -> referenced.add(segment.file()));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                if (!referenced.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private void loadFromDatabase() {
+        indexTableLoader.forEachPage((siteId, pageId, lemmasCountMap) -> addPages(siteId, Map.of(pageId, lemmasCountMap)));
+        writer.execute(() -> flushAndMerge(true));
+    }
+
+    private synchronized Path nextSegmentFile() {
+        return directory.resolve(String.format("segment-%010d%s", nextSegmentId++, SEGMENT_SUFFIX));
+    }
+
+    private static ThreadFactory daemonThread(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record TermKey(int siteId, String lemma) implements Comparable<TermKey> {
+        @Override
+        public int compareTo(TermKey other) {
+            int compare = Integer.compare(siteId, other.siteId);
+            return compare != 0 ? compare : lemma.compareTo(other.lemma);
+        }
+    }
+
+    private record TermCursor(IndexSegment segment, int term) {
+        TermKey key() {
+            return new TermKey(segment.termSiteId(term), segment.termLemma(term));
+        }
+    }
+
+    private record BufferedPage(int siteId, TermCountMap lemmas) {
+    }
+
+    private record LivePage(int siteId, int length) {
+    }
+
+    private static class WriteBuffer {
+        private final long generation;
+        private final Map<Integer, BufferedPage> pages = new ConcurrentHashMap<>();
+
+        WriteBuffer(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Согласованный набор сегментов и буферов; запрос читает один снимок целиком.
+     * Последний буфер принимает новые страницы, предыдущий (если есть) сейчас записывается в сегмент.
+     */
+    private record Snapshot(List<IndexSegment> segments, List<WriteBuffer> buffers) {
+        WriteBuffer active() {
+            return buffers.get(buffers.size() - 1);
+        }
+    }
+}
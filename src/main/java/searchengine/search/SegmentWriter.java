@@ -0,0 +1,103 @@
+package searchengine.search;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Записывает файл сегмента в формате {@link IndexSegment}.
+ * Термины передаются в порядке (siteId, lemma), списки страниц - по возрастанию id.
+ */
+final class SegmentWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream terms = new ByteArrayOutputStream();
+    private final DataOutputStream termsOut = new DataOutputStream(terms);
+    private final List<int[]> pages = new ArrayList<>();
+    private int termCount;
+
+    SegmentWriter(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    void addTerm(int siteId, String lemma, PostingListBuilder postings) throws IOException {
+        byte[] lemmaBytes = lemma.getBytes(StandardCharsets.UTF_8);
+        termsOut.writeInt(siteId);
+        termsOut.writeInt(strings.size());
+        termsOut.writeInt(lemmaBytes.length);
+        termsOut.writeLong(out.size());
+        termsOut.writeInt(postings.size());
+        termsOut.writeInt(maxRank(postings));
+        strings.write(lemmaBytes);
+        termCount++;
+
+        int previousPageId = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            writeVarInt(postings.pageId(i) - previousPageId);
+            writeVarInt(postings.rank(i));
+            previousPageId = postings.pageId(i);
+        }
+    }
+
+    private static int maxRank(PostingListBuilder postings) {
+        int maxRank = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            maxRank = Math.max(maxRank, postings.rank(i));
+        }
+        return maxRank;
+    }
+
+    /**
+     * Норма страницы: число слов, из которых получены её леммы.
+     */
+    void addPage(int pageId, int siteId, int length) {
+        pages.add(new int[]{pageId, siteId, length});
+    }
+
+    void finish(long generation) throws IOException {
+        long stringsOffset = out.size();
+        strings.writeTo(out);
+        long termsOffset = out.size();
+        terms.writeTo(out);
+        long pagesOffset = out.size();
+
+        pages.sort(Comparator.comparingInt(page -> page[0]));
+        for (int[] page : pages) {
+            out.writeInt(page[0]);
+            out.writeInt(page[1]);
+            out.writeInt(page[2]);
+        }
+
+        out.writeLong(stringsOffset);
+        out.writeLong(termsOffset);
+        out.writeInt(termCount);
+        out.writeLong(pagesOffset);
+        out.writeInt(pages.size());
+        out.writeLong(generation);
+        out.writeInt(IndexSegment.MAGIC);
+
+        // DataOutputStream.size() останавливается на Integer.MAX_VALUE, а MappedByteBuffer адресуется int
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Размер сегмента превышает 2 ГБ");
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,14 @@
+package searchengine.search;
+
+/**
+ * Статистика сайта для BM25.
+ *
+ * @param documentCount число проиндексированных страниц
+ * @param totalTokens   сумма длин этих страниц в словах
+ */
+public record SiteStatistics(int documentCount, long totalTokens) {
+
+    public double averageLength() {
+        return documentCount == 0 ? 0.0 : (double) totalTokens / documentCount;
+    }
+}
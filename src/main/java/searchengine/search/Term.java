@@ -0,0 +1,13 @@
+package searchengine.search;
+
+/**
+ * Лемма запроса, найденная в индексе сайта.
+ *
+ * @param lemmaId   id строки в таблице lemma
+ * @param frequency число страниц сайта, содержащих лемму
+ * @param maxRank   верхняя граница rank леммы на страницах сайта, {@link #UNKNOWN_MAX_RANK}, если индекс её не хранит
+ */
+public record Term(int siteId, String lemma, int lemmaId, int frequency, float maxRank) {
+
+    public static final float UNKNOWN_MAX_RANK = Float.POSITIVE_INFINITY;
+}
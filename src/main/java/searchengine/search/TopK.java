@@ -0,0 +1,103 @@
+package searchengine.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Отбор k страниц с наибольшей оценкой за один проход: min-куча размера k,
+ * в корне которой худшая из отобранных страниц. Стоимость O(n log k) вместо
+ * сортировки всех найденных страниц. При равной оценке выше страница с меньшим id.
+ */
+public final class TopK {
+
+    private final int capacity;
+    private final int[] pageIds;
+    private final double[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        this.capacity = capacity;
+        pageIds = new int[capacity];
+        scores = new double[capacity];
+    }
+
+    public void offer(int pageId, double score) {
+        if (size < capacity) {
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (capacity > 0 && isWorse(pageIds[0], scores[0], pageId, score)) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Оценка худшей из отобранных страниц, когда куча заполнена: страница с меньшей оценкой в неё уже не попадёт.
+     * Пока куча не заполнена - минус бесконечность.
+     */
+    public double threshold() {
+        return size < capacity || capacity == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Отобранные страницы от лучшей к худшей.
+     */
+    public List<ScoredPage> toSortedList() {
+        List<ScoredPage> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new ScoredPage(pageIds[i], scores[i]));
+        }
+        result.sort(Comparator.comparingDouble(ScoredPage::score).reversed().thenComparingInt(ScoredPage::pageId));
+        return Collections.unmodifiableList(result);
+    }
+
+    private static boolean isWorse(int pageId, double score, int otherPageId, double otherScore) {
+        return score < otherScore || score == otherScore && pageId > otherPageId;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWorse(pageIds[index], scores[index], pageIds[parent], scores[parent])) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && isWorse(pageIds[left], scores[left], pageIds[worst], scores[worst])) {
+                worst = left;
+            }
+            if (right < size && isWorse(pageIds[right], scores[right], pageIds[worst], scores[worst])) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(index, worst);
+            index = worst;
+        }
+    }
+
+    private void swap(int first, int second) {
+        int pageId = pageIds[first];
+        pageIds[first] = pageIds[second];
+        pageIds[second] = pageId;
+        double score = scores[first];
+        scores[first] = scores[second];
+        scores[second] = score;
+    }
+
+    public record ScoredPage(int pageId, double score) {
+    }
+}
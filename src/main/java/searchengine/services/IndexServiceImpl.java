@@ -10,32 +10,37 @@ import searchengine.config.SitesList;
 import searchengine.dto.indexing.IndexingResponse;
 import searchengine.exceptions.IncorrectURIException;
 import searchengine.exceptions.IndexingAlreadyStartedException;
-import searchengine.model.Index;
-import searchengine.model.Lemma;
 import searchengine.model.Page;
 import searchengine.model.Site;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
+import searchengine.repository.CrawlCheckpointStore;
+import searchengine.repository.IndexBatchWriter;
+import searchengine.repository.PageContentStore;
 import searchengine.repository.PageRepository;
+import searchengine.repository.SiteCounters;
 import searchengine.repository.SiteRepository;
+import searchengine.search.SearchIndex;
+import searchengine.search.SearchResultCache;
+import searchengine.util.CrawlMode;
+import searchengine.util.CrawlPipeline;
 import searchengine.util.LemmaFinder;
-import searchengine.util.RecursiveSiteCrawler;
+import searchengine.util.PageText;
+import searchengine.util.SiteCrawl;
+import searchengine.util.TermCountMap;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.time.LocalDateTime;
 
 import java.util.*;
-
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 public class IndexServiceImpl implements IndexingService {
 
-    private static final int TERMINATION_AWAIT_TIME_HOURS = 24;
     @Autowired
     private SitesList sitesList;
     @Autowired
@@ -43,70 +48,167 @@ public class IndexServiceImpl implements IndexingService {
     @Autowired
     private PageRepository pageRepository;
     @Autowired
-    private LemmaRepository lemmaRepository;
+    private PageContentStore pageContentStore;
+    @Autowired
+    private IndexBatchWriter indexBatchWriter;
+    @Autowired
+    private LemmaFinder lemmaFinder;
+    @Autowired
+    private CrawlPipeline crawlPipeline;
+    @Autowired
+    private CrawlCheckpointStore crawlCheckpointStore;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private SearchResultCache searchResultCache;
     @Autowired
-    private IndexRepository indexRepository;
+    private SiteCounters siteCounters;
+
+    private final ExecutorService generationCleaner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "generation-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String EMPTY_GENERATION_ERROR = "Ошибка индексации: не проиндексировано ни одной страницы";
 
     public static volatile Boolean isRunning = false;
     private static volatile Boolean isStopped = false;
-    private ForkJoinPool pool;
 
 
     @Override
-    public IndexingResponse startIndexing() {
+    public IndexingResponse startIndexing(boolean incremental) {
         if (isRunning) {
             throw new IndexingAlreadyStartedException("Индексация уже запущена");
         } else {
             isRunning = true;
-            new Thread(this::sitesParsing).start();
+            new Thread(() -> sitesParsing(incremental)).start();
             return new IndexingResponse(true);
         }
     }
 
 
-    private void sitesParsing() {
+    private void sitesParsing(boolean incremental) {
 
         List<SiteConfig> siteConfigs = sitesList.getSites();
 
+        crawlPipeline.start();
+
+        List<CompletableFuture<?>> siteCompletions = new ArrayList<>();
         for (SiteConfig siteConfig : siteConfigs) {
-            siteRepository.deleteByUrl(siteConfig.getUrl());
+            if (!isRunning || isStopped) {
+                break;
+            }
+            Optional<Site> activeSite = siteRepository.findActiveByUrl(siteConfig.getUrl());
+            Site shadowSite = null;
+            for (Site inactiveSite : siteRepository.findInactiveByUrl(siteConfig.getUrl())) {
+                if (shadowSite == null && activeSite.isPresent() && crawlCheckpointStore.exists(inactiveSite.getId())) {
+                    shadowSite = inactiveSite;
+                } else {
+                    dropGeneration(inactiveSite.getId());
+                }
+            }
 
-            Site site = new Site();
-            site.setName(siteConfig.getName());
-            site.setUrl(siteConfig.getUrl());
+            CrawlMode mode = CrawlMode.FULL;
+            Site site;
+            if (shadowSite != null) {
+                mode = CrawlMode.RESUME;
+                site = shadowSite;
+            } else if (activeSite.isPresent() && crawlCheckpointStore.exists(activeSite.get().getId())) {
+                mode = CrawlMode.RESUME;
+                site = activeSite.get();
+            } else if (activeSite.isPresent() && incremental) {
+                mode = CrawlMode.INCREMENTAL;
+                site = activeSite.get();
+            } else {
+                // полная переиндексация строит новое поколение рядом с текущим, поиск до переключения идёт по текущему
+                site = new Site();
+                site.setName(siteConfig.getName());
+                site.setUrl(siteConfig.getUrl());
+                site.setActive(activeSite.isEmpty());
+                site = siteRepository.save(site);
+            }
 
-            siteRepository.save(site);
+            if (mode != CrawlMode.FULL) {
+                updateSiteStatus(site, "INDEXING", null);
+            }
+            Site currentSite = site.isActive() ? null : activeSite.get();
+            if (currentSite != null) {
+                updateSiteStatus(currentSite, "INDEXING", null);
+            }
+
+            SiteCrawl crawl = crawlPipeline.crawl(site, siteConfig, mode);
+            siteCompletions.add(crawl.getCompletion().thenRun(() -> finishSiteCrawl(crawl, currentSite)));
         }
 
-        List<Site> allSites = siteRepository.findAll();
+        CompletableFuture.allOf(siteCompletions.toArray(new CompletableFuture<?>[0])).join();
 
+        if (isStopped) {
+            isStopped = false;
+            throw new IndexingAlreadyStartedException("Индексация остановлена пользователем");
+        }
 
-        for (Site site : allSites) {
+        crawlPipeline.stop();
+        isRunning = false;
+    }
 
-            Set<String> visitedLinks = ConcurrentHashMap.newKeySet();
-            RecursiveSiteCrawler recursiveSiteCrawlerTask = new RecursiveSiteCrawler(site.getUrl(), visitedLinks, site, siteRepository, pageRepository, lemmaRepository, indexRepository);
+    /**
+     * @param currentSite активное поколение сайта, если обход строил новое поколение, иначе null
+     */
+    private void finishSiteCrawl(SiteCrawl crawl, Site currentSite) {
+        if (isStopped) {
+            return;
+        }
 
-            pool = new ForkJoinPool();
-            pool.execute(recursiveSiteCrawlerTask);
+        Site site = crawl.getSite();
+        if (currentSite == null) {
+            if (crawl.getLastError() == null) {
+                updateSiteStatus(site, "INDEXED", "");
+            } else {
+                updateSiteStatus(site, "FAILED", crawl.getLastError());
+            }
+            return;
+        }
 
-            pool.shutdown();
-            awaitPoolTermination();
+        String lastError = crawl.getLastError();
+        if (lastError == null && indexedPages(site) == 0) {
+            // пустое поколение заменило бы рабочее и оставило сайт без результатов поиска
+            lastError = EMPTY_GENERATION_ERROR;
+        }
+        if (lastError == null) {
+            updateSiteStatus(site, "INDEXED", "");
+            siteRepository.activate(site.getId(), currentSite.getId());
+            site.setActive(true);
+            searchResultCache.invalidate();
+            dropGeneration(currentSite.getId());
+        } else {
+            dropGeneration(site.getId());
+            updateSiteStatus(currentSite, "FAILED", lastError);
+        }
+    }
 
-            if (isStopped) {
-                isStopped = false;
-                throw new IndexingAlreadyStartedException("Индексация остановлена пользователем");
-            }
+    /**
+     * Число проиндексированных страниц поколения. Счётчик ведёт {@link IndexBatchWriter} в самой таблице site,
+     * поэтому запись перечитывается.
+     */
+    private int indexedPages(Site site) {
+        return siteRepository.findById(site.getId()).map(Site::getIndexedPages).orElse(0);
+    }
 
-            Site siteFromDb = siteRepository.findByUrl(site.getUrl()).get();
-            String lastError = siteFromDb.getLastError();
+    /**
+     * Удаляет неактивное поколение сайта в фоне: из поиска оно уже исключено, а удаление его строк
+     * порциями не задерживает индексацию и поиск.
+     */
+    private void dropGeneration(int siteId) {
+        generationCleaner.execute(() -> {
+            searchIndex.removeSite(siteId);
+            indexBatchWriter.deleteSite(siteId);
+        });
+    }
 
-            if (lastError == null) {
-                updateSiteStatus(site, "INDEXED", "");
-            } else if (lastError.startsWith("Ошибка")) {
-                updateSiteStatus(site, "FAILED", "Ошибка индексации: главная страница сайта не доступна");
-            }
-        }
-        isRunning = false;
+    @PreDestroy
+    public void shutdown() {
+        generationCleaner.shutdown();
     }
 
     @Override
@@ -117,8 +219,7 @@ public class IndexServiceImpl implements IndexingService {
             isRunning = false;
             isStopped = true;
         }
-        pool.shutdown();
-        awaitPoolTermination();
+        crawlPipeline.stop();
 
         List<Site> siteList = siteRepository.findAll();
         for (Site site : siteList) {
@@ -146,12 +247,12 @@ public class IndexServiceImpl implements IndexingService {
             throw new IncorrectURIException("Данная страница находится за пределами сайтов, указанных в конфигурационном файле");
         }
 
-        if (!urlDecode.matches(RecursiveSiteCrawler.REGEX_URL)) {
+        if (!urlDecode.matches(CrawlPipeline.REGEX_URL)) {
             throw new IncorrectURIException("Ошибочный адрес страницы");
         }
 
-        Optional<Page> pageModelOptional = pageRepository.findByPath(path);
-        Optional<Site> siteModelOptional = siteRepository.findByUrl(siteUrl);
+        Optional<Site> siteModelOptional = siteRepository.findActiveByUrl(siteUrl);
+        Optional<Page> pageModelOptional = siteModelOptional.flatMap(siteModel -> pageRepository.findBySiteIdAndPath(siteModel, path));
 
         boolean isPageExist = pageModelOptional.isPresent();
         boolean isSiteExist = siteModelOptional.isPresent();
@@ -160,21 +261,24 @@ public class IndexServiceImpl implements IndexingService {
             Document docItem = Jsoup.connect(urlDecode).get();
             String html = docItem.html();
 
-            Map<String, Integer> lemmasCountMap = LemmaFinder.getInstance().wordAndCountsCollector(html);
+            PageText pageText = PageText.of(docItem);
+            TermCountMap lemmasCountMap = lemmaFinder.wordAndCountsCollector(pageText, sitesList.isStorePositions());
 
             if (!isPageExist) {
                 if (!isSiteExist) {
                     Site site = createNewSite(siteUrl);
-                    Page page = createNewPage(path, html, site);
+                    Page page = createNewPage(path, html, pageText, site, lemmasCountMap.totalCount());
 
-                    lemmaAndIndexBuilder(lemmasCountMap, site, page);
+                    indexBatchWriter.writePage(site, page, lemmasCountMap);
+                    searchIndex.addPages(site.getId(), Map.of(page.getId(), lemmasCountMap));
 
                     updateSiteStatus(site, "INDEXED", "");
                 } else {
                     Site site = siteModelOptional.get();
-                    Page page = createNewPage(path, html, site);
+                    Page page = createNewPage(path, html, pageText, site, lemmasCountMap.totalCount());
 
-                    lemmaAndIndexBuilder(lemmasCountMap, site, page);
+                    indexBatchWriter.writePage(site, page, lemmasCountMap);
+                    searchIndex.addPages(site.getId(), Map.of(page.getId(), lemmasCountMap));
 
                     updateSiteStatus(site, "INDEXED", "");
 
@@ -183,9 +287,12 @@ public class IndexServiceImpl implements IndexingService {
                 Site site = siteModelOptional.get();
                 Page page = pageModelOptional.get();
 
-                updatePageContent(page, html);
+                indexBatchWriter.removePageIndexes(List.of(page.getId()));
+                updatePageContent(page, html, pageText, lemmasCountMap.totalCount());
 
-                lemmaAndIndexBuilder(lemmasCountMap, site, page);
+                searchIndex.removePages(List.of(page.getId()));
+                indexBatchWriter.writePage(site, page, lemmasCountMap);
+                searchIndex.addPages(site.getId(), Map.of(page.getId(), lemmasCountMap));
 
                 updateSiteStatus(site, "INDEXED", "");
             }
@@ -198,47 +305,20 @@ public class IndexServiceImpl implements IndexingService {
             }
             handlePageHttpStatusException(ex, path, siteUrl);
             throw new IncorrectURIException("Страница не доступна. Код: " + ex.getStatusCode());
-        }
-    }
-
-    private void lemmaAndIndexBuilder(Map<String, Integer> lemmasCountMap, Site site, Page page) {
-        lemmasCountMap.forEach((lemma, rate) -> {
-            Lemma lemmaModel = new Lemma();
-            lemmaModel.setLemma(lemma);
-            lemmaModel.setSiteId(site);
-            lemmaModel = addLemmaToDB(lemmaModel);
-
-            Index index = new Index();
-            index.setLemmaId(lemmaModel);
-            index.setPageId(page);
-            index.setRank(rate);
-            lemmaRepository.save(lemmaModel);
-            indexRepository.save(index);
-        });
-    }
-
-    private Lemma addLemmaToDB(Lemma lemma) {
-        List<Lemma> lemmaList = lemmaRepository.findByLemma(lemma.getLemma());
-
-        if (lemmaList.size() == 0) {
-            lemma.setFrequency(1);
-            return lemmaRepository.save(lemma);
-        } else {
-            Lemma lemmaFromDb = lemmaList.get(0);
-            lemmaFromDb.setFrequency(lemmaFromDb.getFrequency() + 1);
-            return lemmaRepository.save(lemmaFromDb);
+        } finally {
+            searchResultCache.invalidate();
         }
     }
 
     private void handlePageHttpStatusException(HttpStatusException ex, String path, String siteUrl) {
-        Site site = siteRepository.findByUrl(siteUrl).get();
+        Site site = siteRepository.findActiveByUrl(siteUrl).get();
         Page page = new Page();
 
         page.setCode(ex.getStatusCode());
         page.setPath(path);
-        page.setContent("error");
         page.setSiteId(site);
         pageRepository.save(page);
+        siteCounters.addPages(site.getId(), 1);
 
         site.setStatus("FAILED");
         site.setStatusTime(LocalDateTime.now());
@@ -253,13 +333,17 @@ public class IndexServiceImpl implements IndexingService {
         siteRepository.save(site);
     }
 
-    private Page createNewPage(String path, String html, Site site) {
+    private Page createNewPage(String path, String html, PageText pageText, Site site, int tokenCount) {
         Page page = new Page();
-        page.setContent(html);
+        page.setTokenCount(tokenCount);
+        page.setTitle(pageText.title());
         page.setCode(200);
         page.setSiteId(site);
         page.setPath(path);
-        return pageRepository.save(page);
+        page = pageRepository.save(page);
+        siteCounters.addPages(site.getId(), 1);
+        pageContentStore.save(page.getId(), html, pageText);
+        return page;
     }
 
     private Site createNewSite(String siteUrl) {
@@ -270,19 +354,11 @@ public class IndexServiceImpl implements IndexingService {
         return siteRepository.save(site);
     }
 
-    private void updatePageContent(Page page, String content) {
-        page.setContent(content);
+    private void updatePageContent(Page page, String content, PageText pageText, int tokenCount) {
+        page.setTokenCount(tokenCount);
+        page.setTitle(pageText.title());
         pageRepository.save(page);
-    }
-
-    private void awaitPoolTermination() {
-        try {
-            if (!pool.awaitTermination(TERMINATION_AWAIT_TIME_HOURS, TimeUnit.HOURS)) {
-                awaitPoolTermination();
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        pageContentStore.save(page.getId(), content, pageText);
     }
 
     private SiteConfig searchSiteInConfig(String siteUrl) {
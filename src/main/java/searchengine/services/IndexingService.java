@@ -8,7 +8,7 @@ import java.net.MalformedURLException;
 
 public interface IndexingService {
 
-    IndexingResponse startIndexing() throws MalformedURLException;
+    IndexingResponse startIndexing(boolean incremental) throws MalformedURLException;
 
     IndexingResponse stopIndexing();
 
@@ -1,6 +1,5 @@
 package searchengine.services;
 
-import org.jsoup.Jsoup;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
@@ -8,215 +7,302 @@ import searchengine.dto.search.SearchItem;
 import searchengine.dto.search.SearchResponse;
 import searchengine.dto.search.SearchResponsePositive;
 import searchengine.exceptions.SearchException;
-import searchengine.model.Index;
-import searchengine.model.Lemma;
-import searchengine.model.Page;
 import searchengine.model.Site;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageContentStore;
 import searchengine.repository.PageRepository;
+import searchengine.repository.PageRepository.FoundPage;
 import searchengine.repository.SiteRepository;
+import searchengine.search.Bm25Scorer;
+import searchengine.search.CorpusStatistics;
+import searchengine.search.PhraseQuery;
+import searchengine.search.Proximity;
+import searchengine.search.SearchIndex;
+import searchengine.search.SearchResultCache;
+import searchengine.search.Term;
+import searchengine.search.TopK.ScoredPage;
 import searchengine.util.LemmaFinder;
+import searchengine.util.PageText;
+import searchengine.util.PostingLists;
+import searchengine.util.SnippetBuilder;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Component
 public class SearchServiceImpl implements SearchService {
 
-    @Autowired
-    private LemmaRepository lemmaRepository;
+    private static final int PROXIMITY_DEPTH = 200;
+    private static final int POSITIONS_BLOCK_SIZE = 1000;
+    private static final PageText EMPTY_TEXT = new PageText("", "", new int[0]);
+    private static final Comparator<ScoredPage> BY_SCORE =
+            Comparator.comparingDouble(ScoredPage::score).reversed().thenComparingInt(ScoredPage::pageId);
+
     @Autowired
     private SiteRepository siteRepository;
     @Autowired
-    private IndexRepository indexRepository;
-    @Autowired
     private PageRepository pageRepository;
+    @Autowired
+    private PageContentStore pageContentStore;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private Bm25Scorer bm25Scorer;
+    @Autowired
+    private LemmaFinder lemmaFinder;
+    @Autowired
+    private SnippetBuilder snippetBuilder;
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    private final ExecutorService searchExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), searchThreads());
 
 
     @Override
     public SearchResponse search(String query, int offset, int limit, String site) throws IOException {
+        if (offset < 0 || limit <= 0) {
+            throw new SearchException("Некорректные параметры offset или limit");
+        }
         String queryTrim = query.trim();
-        Optional<Site> siteModelOptional = siteRepository.findByUrl(site);
+        List<String> lemmasQuery = lemmaFinder
+                .wordAndCountsCollector(queryTrim)
+                .terms();
+        List<PhraseQuery> phrases = PhraseQuery.parse(queryTrim, lemmaFinder);
+
+        SearchResultCache.Key cacheKey = searchResultCache.key(lemmasQuery, phrases, site, offset, limit);
+        SearchResponse cachedResponse = searchResultCache.get(cacheKey);
+        if (cachedResponse != null) {
+            return cachedResponse;
+        }
+
+        Optional<Site> siteModelOptional = siteRepository.findActiveByUrl(site);
 
         if (siteModelOptional.isEmpty() && !site.isEmpty()) {
             throw new SearchException("Данный сайт не проиндексирован");
         }
 
-        Set<String> lemmasQuerySet = LemmaFinder.getInstance()
-                .wordAndCountsCollector(queryTrim)
-                .keySet();
-
-        List<Lemma> lemmaModelsListOfDB = searchLemmasFromDB(site, siteModelOptional, lemmasQuerySet);
+        List<Integer> siteIds = siteModelOptional.map(siteModel -> List.of(siteModel.getId()))
+                .orElseGet(() -> siteRepository.findAllActive().stream().map(Site::getId).toList());
+        Map<Integer, List<Term>> termsBySite = new LinkedHashMap<>();
+        Set<String> foundLemmas = new HashSet<>();
+        for (Integer siteId : siteIds) {
+            List<Term> siteTerms = findTerms(siteId, lemmasQuery);
+            siteTerms.forEach(term -> foundLemmas.add(term.lemma()));
+            termsBySite.put(siteId, siteTerms);
+        }
 
-        if (lemmaModelsListOfDB.isEmpty()) {
+        if (foundLemmas.isEmpty()) {
             throw new SearchException("Поиск не дал результатов");
         }
 
-        List<Lemma> sortedLemmasListToFreq = lemmaModelsListOfDB.stream()
-                .sorted(Comparator.comparing(Lemma::getFrequency))
-                .toList();
+        CorpusStatistics statistics = CorpusStatistics.of(searchIndex, siteIds,
+                termsBySite.values().stream().flatMap(List::stream).toList());
+        boolean rerank = foundLemmas.size() > 1 && searchIndex.storesPositions();
+        long depth = rerank ? Math.max((long) offset + limit, PROXIMITY_DEPTH) : (long) offset + limit;
 
-        List<Page> pages = findPages(sortedLemmasListToFreq);
+        List<CompletableFuture<SiteResult>> siteSearches = new ArrayList<>();
+        termsBySite.forEach((siteId, siteTerms) -> {
+            // лемма, найденная на других сайтах, но не на этом: на этом сайте нет страниц со всеми словами запроса
+            if (siteTerms.size() == foundLemmas.size()) {
+                siteSearches.add(CompletableFuture.supplyAsync(() -> searchSite(siteTerms, phrases, statistics, depth), searchExecutor));
+            }
+        });
 
-        if (pages.isEmpty()) {
-            throw new SearchException("Ничего не найдено по данному запросу");
+        int count = 0;
+        List<ScoredPage> rankedPages = new ArrayList<>();
+        for (CompletableFuture<SiteResult> siteSearch : siteSearches) {
+            SiteResult siteResult = siteSearch.join();
+            count += siteResult.count();
+            rankedPages.addAll(siteResult.pages());
         }
 
-        Map<Page, Double> relevanceMap = buildRelevanceMap(sortedLemmasListToFreq, pages);
-
-        Map<Page, Double> sortedRelevanceMap = relevanceMap.entrySet()
-                .stream()
-                .sorted(Map.Entry.<Page, Double>comparingByValue().reversed()).limit(500)
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (oldValue, newValue) -> oldValue,
-                        LinkedHashMap::new
-                ));
-
+        if (count == 0) {
+            throw new SearchException("Ничего не найдено по данному запросу");
+        }
 
-        List<SearchItem> data = buildDataResult(queryTrim, sortedRelevanceMap, offset, limit);
+        rankedPages.sort(BY_SCORE);
+        List<SearchItem> data = buildDataResult(new HashSet<>(lemmasQuery), rankedPages, offset, limit);
 
-        return new SearchResponsePositive(sortedRelevanceMap.keySet().size(), data);
+        SearchResponse response = new SearchResponsePositive(count, data);
+        searchResultCache.put(cacheKey, response);
+        return response;
     }
 
-    private List<Lemma> searchLemmasFromDB(String site, Optional<Site> siteModelOptional, Set<String> lemmasQuerySet) {
-        List<Lemma> lemmaModelsListOfDB = new ArrayList<>();
-        for (String lemma : lemmasQuerySet) {
-            Lemma lemmaModel;
-
-            if (site == null || site.isEmpty()) {
-                lemmaModel = lemmaRepository.customSelectAllSitesFromLemmaDB(lemma);
-            } else {
-                lemmaModel = lemmaRepository.customSelectFromLemmaDB(siteModelOptional.get().getId(), lemma);
-            }
+    private List<Term> findTerms(int siteId, List<String> lemmasQuery) {
+        List<Term> terms = new ArrayList<>();
+        for (String lemma : lemmasQuery) {
+            Term term = searchIndex.findTerm(siteId, lemma);
 
-            if (lemmaModel == null) continue;
+            if (term == null) continue;
 
-            lemmaModelsListOfDB.add(lemmaModel);
+            terms.add(term);
         }
-        return lemmaModelsListOfDB;
+        return terms;
     }
 
-    private List<SearchItem> buildDataResult(String query, Map<Page, Double> sortedRelevanceMap, int offset, int limit) {
-        List<SearchItem> data = new ArrayList<>();
-        final int fLimit = Math.min(limit, sortedRelevanceMap.keySet().size());
-        int[] acc = {offset};
-
-        sortedRelevanceMap.forEach((page, relevance) -> {
-
-            if (acc[0] < fLimit) {
-                SearchItem searchItem = new SearchItem();
-                searchItem.setRelevance(relevance);
-                searchItem.setSite(page.getSiteId().getUrl());
-                searchItem.setSiteName(page.getSiteId().getName());
-                searchItem.setUri(page.getPath());
-                searchItem.setTitle(getTitle(page));
-                searchItem.setSnippet(getSnippet(page.getContent(), query));
-                data.add(searchItem);
-                acc[0]++;
+    /**
+     * Поиск по одному сайту со статистикой всех сайтов запроса. Оценки страниц проходят через кучу размера
+     * {@code depth}: при нескольких словах и хранимых позициях это не меньше {@link #PROXIMITY_DEPTH}, потому что первые страницы
+     * переупорядочиваются с учётом близости слов и их набор не должен зависеть от offset.
+     */
+    private SiteResult searchSite(List<Term> siteTerms, List<PhraseQuery> phrases, CorpusStatistics statistics, long depth) {
+        List<Term> sortedTermsToFreq = siteTerms.stream()
+                .sorted(Comparator.comparingInt(Term::frequency))
+                .toList();
+
+        int count;
+        List<ScoredPage> rankedPages;
+        if (phrases.isEmpty() || !searchIndex.storesPositions()) {
+            // без фраз полное пересечение списков не строится: оценка сама проверяет кандидатов самой редкой леммы
+            count = searchIndex.countPages(sortedTermsToFreq);
+            if (count == 0) {
+                return new SiteResult(0, List.of());
             }
+            rankedPages = bm25Scorer.topPages(sortedTermsToFreq, (int) Math.min(count, depth), statistics);
+        } else {
+            int[] pageIds = filterPhrases(phrases, sortedTermsToFreq, findPageIds(sortedTermsToFreq));
+            count = pageIds.length;
+            if (count == 0) {
+                return new SiteResult(0, List.of());
+            }
+            rankedPages = bm25Scorer.topPages(sortedTermsToFreq, pageIds, (int) Math.min(count, depth), statistics);
+        }
 
-        });
-        return data;
+        if (sortedTermsToFreq.size() > 1 && searchIndex.storesPositions()) {
+            rankedPages = rerankByProximity(sortedTermsToFreq, rankedPages);
+        }
+        return new SiteResult(count, rankedPages);
     }
 
+    /**
+     * Множитель близости применяется только к первым {@link #PROXIMITY_DEPTH} страницам:
+     * он не меньше 1, поэтому они остаются выше остальных.
+     */
+    private List<ScoredPage> rerankByProximity(List<Term> terms, List<ScoredPage> rankedPages) {
+        List<ScoredPage> head = rankedPages.subList(0, Math.min(PROXIMITY_DEPTH, rankedPages.size()));
+        int[] headIds = head.stream().mapToInt(ScoredPage::pageId).sorted().toArray();
+        int[][][] positions = searchIndex.positions(terms, headIds);
+        if (positions == null) {
+            return rankedPages;
+        }
 
-    private Map<Page, Double> buildRelevanceMap(List<Lemma> sortedLemmasListToFreq, List<Page> pages) {
-        HashMap<Page, Double> relevanceMap = new HashMap<>();
-        double maxAbsRelevance = 0.0;
-        for (Page page : pages) {
-            double sumRank = 0.0;
-            for (Lemma lemma : sortedLemmasListToFreq) {
-                List<Index> indices = indexRepository.findByPageIdAndLemmaId(page.getId(), lemma.getId());
-                for (Index index : indices) {
-                    sumRank += index.getRank();
-                }
+        List<ScoredPage> reranked = new ArrayList<>(rankedPages.size());
+        for (ScoredPage scoredPage : head) {
+            int page = Arrays.binarySearch(headIds, scoredPage.pageId());
+            List<int[]> pagePositions = new ArrayList<>();
+            for (int[][] termPositions : positions) {
+                pagePositions.add(termPositions[page]);
             }
-            maxAbsRelevance = Math.max(sumRank, maxAbsRelevance);
-            relevanceMap.put(page, sumRank);
+            double boost = Proximity.boost(Proximity.minimalSpan(pagePositions), terms.size());
+            reranked.add(new ScoredPage(scoredPage.pageId(), scoredPage.score() * boost));
         }
-        double finalMaxAbsRelevance = maxAbsRelevance;
-        relevanceMap.forEach((page, sumRank) -> {
-            relevanceMap.put(page, sumRank / finalMaxAbsRelevance);
-        });
-
-        return relevanceMap;
+        reranked.sort(BY_SCORE);
+        reranked.addAll(rankedPages.subList(head.size(), rankedPages.size()));
+        return reranked;
     }
 
-    private List<Page> findPages(List<Lemma> sortedLemmasListToFreq) {
-        List<Page> pages = new ArrayList<>();
-        for (Lemma lemma : sortedLemmasListToFreq) {
-            List<Integer> pageIds = indexRepository.findPageIdLemmaId(lemma.getId());
-            if (pages.isEmpty()) {
-                pages = pageRepository.findPagesByIds(pageIds);
-            } else {
-                pages = pages.stream()
-                        .filter(page -> pageIds.contains(page.getId()))
-                        .collect(Collectors.toList());
+    /**
+     * Оставляет страницы, на которых все фразы запроса встречаются дословно.
+     * Если индекс не хранит позиции, фразы проверяются как обычные слова запроса.
+     */
+    private int[] filterPhrases(List<PhraseQuery> phrases, List<Term> terms, int[] pageIds) {
+        if (phrases.isEmpty() || pageIds.length == 0 || !searchIndex.storesPositions()) {
+            return pageIds;
+        }
+        Set<String> phraseLemmas = new HashSet<>();
+        phrases.forEach(phrase -> phraseLemmas.addAll(phrase.lemmas()));
+        List<Term> phraseTerms = terms.stream().filter(term -> phraseLemmas.contains(term.lemma())).toList();
+
+        int[] matched = new int[pageIds.length];
+        int size = 0;
+        // блоками: список id не упирается в предел параметров запроса, а позиции не читаются все сразу
+        for (int from = 0; from < pageIds.length; from += POSITIONS_BLOCK_SIZE) {
+            int[] block = Arrays.copyOfRange(pageIds, from, Math.min(pageIds.length, from + POSITIONS_BLOCK_SIZE));
+            int[][][] positions = searchIndex.positions(phraseTerms, block);
+            if (positions == null) {
+                return pageIds;
             }
-            if (pages.isEmpty()) {
-                return Collections.emptyList();
+            for (int page = 0; page < block.length; page++) {
+                Map<String, int[]> pagePositions = new HashMap<>();
+                for (int t = 0; t < phraseTerms.size(); t++) {
+                    pagePositions.put(phraseTerms.get(t).lemma(), positions[t][page]);
+                }
+                if (phrases.stream().allMatch(phrase -> phrase.matches(pagePositions))) {
+                    matched[size++] = block[page];
+                }
             }
         }
-        return pages;
+        return Arrays.copyOf(matched, size);
     }
 
-    private String getSnippet(String htmlContent, String query) {
-        String clearQuery = clearString(query);
-        String contentOfPage = Jsoup.parse(htmlContent).getElementsContainingOwnText(clearQuery).text();
-        String clearTextOfPage = clearString(contentOfPage);
-        String defaultTextOnPage = Jsoup.parse(htmlContent).body().text().substring(0, 150);
-
-        int index = clearTextOfPage.indexOf(clearQuery);
-        int maxCount = 0;
-        int startIndex = 0;
-        while (index >= 0) {
-            int count = 1;
-            int endIndex = index + clearQuery.length();
-            while ((index = clearTextOfPage.indexOf(clearQuery, endIndex)) >= 0 && index - endIndex <= 50) {
-                count++;
-                endIndex = index + clearQuery.length();
-            }
+    private List<SearchItem> buildDataResult(Set<String> queryLemmas, List<ScoredPage> rankedPages, int offset, int limit) {
+        double maxAbsRelevance = rankedPages.isEmpty() ? 0.0 : rankedPages.get(0).score();
+        int from = Math.min(offset, rankedPages.size());
+        List<ScoredPage> window = rankedPages.subList(from, (int) Math.min(rankedPages.size(), (long) from + limit));
+        if (window.isEmpty()) {
+            // offset за последним результатом: запрос с пустым IN () MySQL не примет
+            return new ArrayList<>();
+        }
 
-            if (count > maxCount) {
-                maxCount = count;
-                startIndex = Math.max(0, endIndex - 100);
+        List<Integer> windowIds = window.stream().map(ScoredPage::pageId).toList();
+        Map<Integer, FoundPage> pagesById = new HashMap<>();
+        pageRepository.findFoundPagesByIds(windowIds).forEach(page -> pagesById.put(page.getId(), page));
+        Map<Integer, PageText> textsById = pageContentStore.findTexts(windowIds);
+
+        List<SearchItem> data = new ArrayList<>();
+        Map<String, String> wordLemmas = new HashMap<>();
+        for (ScoredPage scoredPage : window) {
+            FoundPage page = pagesById.get(scoredPage.pageId());
+            if (page == null) {
+                continue;
             }
+            PageText pageText = textsById.getOrDefault(scoredPage.pageId(), EMPTY_TEXT);
+            SearchItem searchItem = new SearchItem();
+            searchItem.setRelevance(scoredPage.score() / maxAbsRelevance);
+            searchItem.setSite(page.getSiteUrl());
+            searchItem.setSiteName(page.getSiteName());
+            searchItem.setUri(page.getPath());
+            searchItem.setTitle(pageText.title());
+            searchItem.setSnippet(snippetBuilder.build(pageText, queryLemmas, wordLemmas));
+            data.add(searchItem);
         }
-        String snippet = clearTextOfPage.substring(startIndex, Math.min(clearTextOfPage.length(), startIndex + 200)) + "...";
+        return data;
+    }
 
-        for (String queryWord : clearQuery.split("\\s+")) {
-            index = snippet.indexOf(queryWord);
-            while (index >= 0) {
-                snippet = snippet.substring(0, index) + "<b>" + snippet.substring(index, index + queryWord.length()) + "</b>" + snippet.substring(index + queryWord.length());
-                index = snippet.indexOf(queryWord, index + queryWord.length() + 7);
+    private int[] findPageIds(List<Term> sortedTermsToFreq) {
+        int[] pageIds = null;
+        for (Term term : sortedTermsToFreq) {
+            int[] termPageIds = searchIndex.findPageIds(term);
+            pageIds = pageIds == null ? termPageIds : PostingLists.intersect(pageIds, termPageIds);
+            if (pageIds.length == 0) {
+                break;
             }
         }
-        return snippet.equals("...") ? defaultTextOnPage : snippet;
+        return pageIds;
     }
 
-    private static String clearString(String contentOfPage) {
-        return contentOfPage
-                .toLowerCase(Locale.ROOT)
-                .replaceAll("([^а-яa-z])", " ");
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
     }
 
-    private String getTitle(Page page) {
-        String pageContent = page.getContent();
-        int titleTextStartIndex = pageContent.indexOf("<title>");
-        int titleTextEndIndex = pageContent.indexOf("</title>");
-
-        if (titleTextStartIndex == -1 || titleTextEndIndex == -1) {
-            return "";
-        }
-
-        titleTextStartIndex += 7;
+    private static ThreadFactory searchThreads() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "search-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        return pageContent.substring(titleTextStartIndex, titleTextEndIndex);
+    /**
+     * @param count число найденных страниц сайта
+     * @param pages лучшие из них от лучшей к худшей
+     */
+    private record SiteResult(int count, List<ScoredPage> pages) {
     }
 }
-
@@ -8,9 +8,9 @@ import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
 import searchengine.model.Site;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageRepository;
+import searchengine.repository.SiteCounters;
 import searchengine.repository.SiteRepository;
+import searchengine.util.CrawlPipeline;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -25,18 +25,21 @@ public class StatisticsServiceImpl implements StatisticsService {
     @Autowired
     private final SiteRepository siteRepository;
     @Autowired
-    private final PageRepository pageRepository;
+    private final SiteCounters siteCounters;
     @Autowired
-    private final LemmaRepository lemmaRepository;
+    private final CrawlPipeline crawlPipeline;
 
     @Override
     public StatisticsResponse getStatistics() {
 
-        List<Site> sites = siteRepository.findAll();
+        List<Site> sites = siteRepository.findAllActive();
 
         TotalStatistics total = new TotalStatistics();
         total.setSites(sites.size());
         total.setIndexing(IndexServiceImpl.isRunning);
+        total.setFetchQueue(crawlPipeline.getFetchQueueSize());
+        total.setParseQueue(crawlPipeline.getParseQueueSize());
+        total.setWriteQueue(crawlPipeline.getWriteQueueSize());
 
 
         List<DetailedStatisticsItem> detailed = new ArrayList<>();
@@ -47,18 +50,19 @@ public class StatisticsServiceImpl implements StatisticsService {
             item.setName(site.getName());
             item.setUrl(site.getUrl());
 
-            int pages = pageRepository.findCountOfPagesBySiteId(site.getId());
-            int lemmas = lemmaRepository.findCountOfLemmasBySiteId(site.getId());
+            SiteCounters.Counts counts = siteCounters.counts(site);
 
-            item.setPages(pages);
-            item.setLemmas(lemmas);
+            item.setPages(counts.pages());
+            item.setLemmas(counts.lemmas());
+            item.setIndexes(counts.indexes());
             item.setStatus(site.getStatus());
             item.setError(site.getLastError());
             item.setStatusTime(ZonedDateTime.of(site.getStatusTime(), ZoneId.systemDefault())
                     .toInstant().toEpochMilli());
 
-            total.setPages(total.getPages() + pages);
-            total.setLemmas(total.getLemmas() + lemmas);
+            total.setPages(total.getPages() + counts.pages());
+            total.setLemmas(total.getLemmas() + counts.lemmas());
+            total.setIndexes(total.getIndexes() + counts.indexes());
 
             detailed.add(item);
         }
@@ -0,0 +1,16 @@
+package searchengine.util;
+
+public enum CrawlMode {
+    /**
+     * Сайт индексируется с нуля.
+     */
+    FULL,
+    /**
+     * Повторно запрашиваются известные страницы сайта, неизменившиеся пропускаются.
+     */
+    INCREMENTAL,
+    /**
+     * Продолжение прерванного обхода с сохранённой контрольной точки.
+     */
+    RESUME
+}
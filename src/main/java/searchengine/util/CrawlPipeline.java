@@ -0,0 +1,566 @@
+package searchengine.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import searchengine.config.SiteConfig;
+import searchengine.config.SitesList;
+import searchengine.model.Page;
+import searchengine.model.Site;
+import searchengine.repository.CrawlCheckpointStore;
+import searchengine.repository.IndexBatchWriter;
+import searchengine.repository.PageContentStore;
+import searchengine.repository.PageRepository;
+import searchengine.repository.PageRepository.PageState;
+import searchengine.repository.SiteCounters;
+import searchengine.repository.SiteRepository;
+import searchengine.search.SearchIndex;
+import searchengine.search.SearchResultCache;
+import searchengine.services.IndexServiceImpl;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конвейер обхода сайтов из трёх стадий со своими пулами потоков:
+ * загрузка страниц (сетевой ввод-вывод), разбор и лемматизация (процессор)
+ * и пакетная запись в базу. Стадии связаны ограниченными очередями,
+ * поэтому медленная стадия притормаживает предыдущую, а не копит страницы в памяти.
+ * Загрузки выдаёт {@link HostScheduler} с учётом ограничений вежливости для каждого хоста.
+ * Необработанные страницы каждого сайта периодически сохраняются в контрольную точку,
+ * чтобы прерванный обход можно было продолжить. Ссылки страницы дописываются в контрольную точку
+ * до записи самой страницы: иначе после сбоя записанная, но не изменившаяся страница не разбиралась бы снова
+ * и найденные на ней ссылки потерялись бы.
+ */
+@Slf4j
+@Component
+public class CrawlPipeline {
+    public static final String REGEX_URL = "^(https?|ftp|file)://[-a-zA-Z0-9+&@/%=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]";
+    public static final String USER_AGENT = "Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6";
+    public static final String REFERRER = "http://www.google.com";
+
+    private static final int WRITE_BATCH_SIZE = 50;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_GONE = 410;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final int STOP_AWAIT_TIME_SECONDS = 60;
+    private static final int CHECKPOINT_INTERVAL_SECONDS = 30;
+    private static final String ROOT_PAGE_ERROR = "Ошибка индексации: главная страница сайта не доступна";
+    private static final String WRITE_ERROR = "Ошибка индексации: не удалось записать индекс страниц";
+
+    @Autowired
+    private SitesList sitesList;
+    @Autowired
+    private SiteRepository siteRepository;
+    @Autowired
+    private PageRepository pageRepository;
+    @Autowired
+    private IndexBatchWriter indexBatchWriter;
+    @Autowired
+    private LemmaFinder lemmaFinder;
+    @Autowired
+    private CrawlCheckpointStore crawlCheckpointStore;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private PageContentStore pageContentStore;
+    @Autowired
+    private SearchResultCache searchResultCache;
+    @Autowired
+    private SiteCounters siteCounters;
+
+    // создаётся в start(): у планировщика свой поток таймера, который до запуска индексации не нужен
+    private volatile HostScheduler hostScheduler;
+    private BlockingQueue<FetchedPage> parseQueue = new ArrayBlockingQueue<>(1);
+    private BlockingQueue<ParsedPage> writeQueue = new ArrayBlockingQueue<>(1);
+    private final Set<SiteCrawl> activeCrawls = ConcurrentHashMap.newKeySet();
+    private final List<ExecutorService> stages = new ArrayList<>();
+    // периодическое сохранение заменяет контрольную точку целиком и не должно затирать дописанные пути
+    private final Object checkpointLock = new Object();
+
+    public synchronized void start() {
+        System.setProperty("https.protocols", "TLSv1,TLSv1.1,TLSv1.2");
+
+        parseQueue = new ArrayBlockingQueue<>(sitesList.getQueueCapacity());
+        writeQueue = new ArrayBlockingQueue<>(sitesList.getQueueCapacity());
+
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(sitesList.getFetchThreads(), namedThreads("crawl-fetch"));
+        hostScheduler = new HostScheduler(fetchExecutor);
+        stages.add(fetchExecutor);
+        stages.add(startStage("crawl-parse", sitesList.getParseThreads(), () -> parse(parseQueue.take())));
+        stages.add(startStage("crawl-write", 1, this::writeBatch));
+
+        ScheduledExecutorService checkpointTimer = Executors.newSingleThreadScheduledExecutor(namedThreads("crawl-checkpoint"));
+        checkpointTimer.scheduleWithFixedDelay(this::saveCheckpoints,
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        stages.add(checkpointTimer);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (hostScheduler != null) {
+            hostScheduler.shutdown();
+            hostScheduler = null;
+        }
+        stages.forEach(ExecutorService::shutdownNow);
+        for (ExecutorService stage : stages) {
+            try {
+                stage.awaitTermination(STOP_AWAIT_TIME_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stages.clear();
+
+        parseQueue.clear();
+        writeQueue.clear();
+        new ArrayList<>(activeCrawls).forEach(crawl -> completeCrawl(crawl, false));
+    }
+
+    /**
+     * Ставит сайт в обход. Если конвейер уже остановлен, возвращает сразу завершённый обход,
+     * а контрольная точка сайта не меняется.
+     */
+    public synchronized SiteCrawl crawl(Site site, SiteConfig siteConfig, CrawlMode mode) {
+        if (hostScheduler == null) {
+            SiteCrawl stopped = new SiteCrawl(site, siteConfig, new SiteLemmaDictionary(site, indexBatchWriter), Map.of());
+            stopped.getCompletion().complete(null);
+            return stopped;
+        }
+
+        Map<String, PageState> knownPages = new HashMap<>();
+        if (mode != CrawlMode.FULL) {
+            pageRepository.findBySiteId(site).forEach(pageState -> knownPages.put(pageState.getPath(), pageState));
+        }
+
+        SiteCrawl crawl = new SiteCrawl(site, siteConfig, new SiteLemmaDictionary(site, indexBatchWriter), knownPages);
+        activeCrawls.add(crawl);
+
+        List<String> pathsToFetch = new ArrayList<>();
+        if (mode == CrawlMode.RESUME) {
+            knownPages.keySet().forEach(crawl::markVisited);
+            List<String> checkpoint = crawlCheckpointStore.load(site.getId());
+            checkpoint.forEach(crawl::markVisited);
+            pathsToFetch.addAll(checkpoint);
+        } else {
+            crawl.markVisited("/");
+            pathsToFetch.add("/");
+            for (String path : knownPages.keySet()) {
+                if (crawl.markVisited(path)) {
+                    pathsToFetch.add(path);
+                }
+            }
+        }
+
+        if (mode != CrawlMode.RESUME) {
+            saveCheckpoint(crawl, pathsToFetch);
+        }
+        if (pathsToFetch.isEmpty()) {
+            completeCrawl(crawl, true);
+        }
+        pathsToFetch.forEach(path -> scheduleFetch(crawl, path.equals("/") ? site.getUrl() : site.getUrl() + path));
+        return crawl;
+    }
+
+    public int getFetchQueueSize() {
+        HostScheduler scheduler = hostScheduler;
+        return scheduler == null ? 0 : scheduler.getQueuedTasks();
+    }
+
+    public int getParseQueueSize() {
+        return parseQueue.size();
+    }
+
+    public int getWriteQueueSize() {
+        return writeQueue.size();
+    }
+
+    private void scheduleFetch(SiteCrawl crawl, String url) {
+        crawl.pageQueued(pathOf(url));
+        HostScheduler scheduler = hostScheduler;
+        if (scheduler == null) {
+            // обход остановлен: страница остаётся в контрольной точке
+            return;
+        }
+        scheduler.submit(crawl.getHost(), crawl.getRequestsPerSecond(), crawl.getMaxInFlight(), () -> fetch(crawl, url));
+    }
+
+    private void fetch(SiteCrawl crawl, String url) {
+        if (!IndexServiceImpl.isRunning) {
+            // страница остаётся в контрольной точке и будет загружена при продолжении обхода
+            return;
+        }
+
+        PageState knownPage = crawl.getKnownPages().get(pathOf(url));
+        try {
+            try {
+                Connection connection = Jsoup.connect(url)
+                        .userAgent(USER_AGENT)
+                        .referrer(REFERRER)
+                        .ignoreContentType(true);
+                if (knownPage != null && knownPage.getEtag() != null) {
+                    connection.header("If-None-Match", knownPage.getEtag());
+                }
+                if (knownPage != null && knownPage.getLastModified() != null) {
+                    connection.header("If-Modified-Since", knownPage.getLastModified());
+                }
+
+                Connection.Response res = connection.execute();
+                if (res.statusCode() == HTTP_NOT_MODIFIED) {
+                    pageDone(crawl, pathOf(url));
+                    return;
+                }
+
+                String body = res.body();
+                String contentHash = contentHash(body);
+                if (knownPage != null && contentHash.equals(knownPage.getContentHash())) {
+                    pageDone(crawl, pathOf(url));
+                    return;
+                }
+
+                parseQueue.put(new FetchedPage(crawl, url, res.statusCode(), body,
+                        res.header("ETag"), res.header("Last-Modified"), contentHash,
+                        knownPage == null ? null : knownPage.getId()));
+            } catch (HttpStatusException e) {
+                if (e.getStatusCode() >= HTTP_SERVER_ERROR) {
+                    log.warn("Страница {} сайта {} вернула код {}", url, crawl.getSite().getUrl(), e.getStatusCode());
+                } else {
+                    log.debug("Страница {} сайта {} вернула код {}", url, crawl.getSite().getUrl(), e.getStatusCode());
+                }
+                rootPageFailed(crawl, url);
+                if (knownPage == null) {
+                    writeQueue.put(new ParsedPage(crawl, errorPage(crawl, url, e.getStatusCode()), null, null, new TermCountMap(), List.of(), false));
+                } else if (e.getStatusCode() == HTTP_NOT_FOUND || e.getStatusCode() == HTTP_GONE) {
+                    Page page = new Page();
+                    page.setId(knownPage.getId());
+                    page.setPath(knownPage.getPath());
+                    writeQueue.put(new ParsedPage(crawl, page, null, null, new TermCountMap(), List.of(), true));
+                } else {
+                    pageDone(crawl, pathOf(url));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Не удалось загрузить страницу {} сайта {}: {}", url, crawl.getSite().getUrl(), e.toString());
+            rootPageFailed(crawl, url);
+            pageDone(crawl, pathOf(url));
+        } catch (Exception e) {
+            log.error("Ошибка загрузки страницы {} сайта {}", url, crawl.getSite().getUrl(), e);
+            rootPageFailed(crawl, url);
+            pageDone(crawl, pathOf(url));
+        }
+    }
+
+    private void parse(FetchedPage fetchedPage) throws InterruptedException {
+        SiteCrawl crawl = fetchedPage.crawl();
+        ParsedPage parsedPage;
+        try {
+            Document doc = Jsoup.parse(fetchedPage.body(), fetchedPage.url());
+            PageText pageText = PageText.of(doc);
+            TermCountMap lemmasCountMap = lemmaFinder.wordAndCountsCollector(pageText, sitesList.isStorePositions());
+
+            List<String> queuedPaths = new ArrayList<>();
+            for (Element item : doc.select("a")) {
+                String link = item.attr("abs:href");
+                if (queueLink(crawl, link)) {
+                    queuedPaths.add(pathOf(link));
+                }
+            }
+
+            Page page = new Page();
+            page.setId(fetchedPage.knownPageId());
+            page.setPath(pathOf(fetchedPage.url()));
+            page.setCode(fetchedPage.statusCode());
+            page.setSiteId(crawl.getSite());
+            page.setEtag(fetchedPage.etag());
+            page.setLastModified(fetchedPage.lastModified());
+            page.setContentHash(fetchedPage.contentHash());
+            page.setTokenCount(lemmasCountMap.totalCount());
+            page.setTitle(pageText.title());
+            parsedPage = new ParsedPage(crawl, page, doc.html(), pageText, lemmasCountMap, queuedPaths, false);
+        } catch (Exception e) {
+            log.error("Ошибка разбора страницы {} сайта {}", fetchedPage.url(), crawl.getSite().getUrl(), e);
+            rootPageFailed(crawl, fetchedPage.url());
+            pageDone(crawl, pathOf(fetchedPage.url()));
+            return;
+        }
+        writeQueue.put(parsedPage);
+    }
+
+    private void writeBatch() throws InterruptedException {
+        List<ParsedPage> batch = new ArrayList<>();
+        batch.add(writeQueue.take());
+        writeQueue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+        addToCheckpoints(batch);
+
+        List<Integer> changedPageIds = new ArrayList<>();
+        List<Integer> removedPageIds = new ArrayList<>();
+        for (ParsedPage parsedPage : batch) {
+            Integer pageId = parsedPage.page().getId();
+            if (pageId != null) {
+                changedPageIds.add(pageId);
+                if (parsedPage.removed()) {
+                    removedPageIds.add(pageId);
+                }
+            }
+        }
+        try {
+            if (!changedPageIds.isEmpty()) {
+                indexBatchWriter.removePageIndexes(changedPageIds);
+                searchIndex.removePages(changedPageIds);
+            }
+            if (!removedPageIds.isEmpty()) {
+                pageRepository.deleteAllByIdInBatch(removedPageIds);
+                batch.stream()
+                        .filter(parsedPage -> parsedPage.removed() && parsedPage.page().getId() != null)
+                        .forEach(parsedPage -> siteCounters.addPages(parsedPage.crawl().getSite().getId(), -1));
+            }
+        } catch (Exception e) {
+            log.error("Не удалось удалить старые записи страниц: изменённые {}, удалённые {}", changedPageIds, removedPageIds, e);
+            // старые записи страниц могли остаться в индексе
+            batch.forEach(parsedPage -> parsedPage.crawl().setLastError(WRITE_ERROR));
+        }
+
+        Map<SiteCrawl, Map<Page, TermCountMap>> pagesBySite = new LinkedHashMap<>();
+        List<PageContentStore.Content> contents = new ArrayList<>();
+        for (ParsedPage parsedPage : batch) {
+            if (parsedPage.removed()) {
+                continue;
+            }
+            try {
+                boolean isNewPage = parsedPage.page().getId() == null;
+                pageRepository.save(parsedPage.page());
+                if (isNewPage) {
+                    siteCounters.addPages(parsedPage.crawl().getSite().getId(), 1);
+                }
+                pagesBySite.computeIfAbsent(parsedPage.crawl(), crawl -> new LinkedHashMap<>())
+                        .put(parsedPage.page(), parsedPage.lemmasCountMap());
+                if (parsedPage.html() != null) {
+                    contents.add(new PageContentStore.Content(parsedPage.page().getId(), parsedPage.html(), parsedPage.pageText()));
+                }
+            } catch (Exception e) {
+                log.error("Не удалось сохранить страницу {} сайта {}", parsedPage.page().getPath(),
+                        parsedPage.crawl().getSite().getUrl(), e);
+            }
+        }
+        try {
+            pageContentStore.saveAll(contents);
+        } catch (Exception e) {
+            log.error("Не удалось сохранить содержимое {} страниц", contents.size(), e);
+        }
+
+        pagesBySite.forEach((crawl, pagesLemmas) -> {
+            try {
+                crawl.getLemmaDictionary().writePages(pagesLemmas);
+                searchIndex.addPages(crawl.getSite().getId(), byPageId(pagesLemmas));
+                Site site = crawl.getSite();
+                site.setStatusTime(LocalDateTime.now());
+                siteRepository.save(site);
+            } catch (Exception e) {
+                log.error("Не удалось записать индекс страниц сайта {}", crawl.getSite().getUrl(), e);
+                // без записанных лемм страницы не находятся поиском: поколение не должно стать активным
+                crawl.setLastError(WRITE_ERROR);
+            }
+        });
+        // пакет, записанный только в строящееся поколение, поиску не виден
+        if (batch.stream().anyMatch(parsedPage -> parsedPage.crawl().getSite().isActive())) {
+            searchResultCache.invalidate();
+        }
+
+        batch.forEach(parsedPage -> pageDone(parsedPage.crawl(), parsedPage.page().getPath()));
+    }
+
+    private static Map<Integer, TermCountMap> byPageId(Map<Page, TermCountMap> pagesLemmas) {
+        Map<Integer, TermCountMap> result = new HashMap<>();
+        pagesLemmas.forEach((page, lemmasCountMap) -> result.put(page.getId(), lemmasCountMap));
+        return result;
+    }
+
+    /**
+     * @return true, если ссылка поставлена в очередь загрузки
+     */
+    private boolean queueLink(SiteCrawl crawl, String link) {
+        if (link.startsWith(crawl.getSite().getUrl())
+                && link.matches(REGEX_URL)
+                && !link.contains("#")
+                && !link.endsWith("pdf")
+                && !link.endsWith("jpg")
+                && !link.endsWith("jpeg")
+                && !link.endsWith("png")
+                && crawl.markVisited(pathOf(link))) {
+
+            scheduleFetch(crawl, link);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Отмечает обход неудачным, если не удалось обработать главную страницу, по какой бы причине это ни случилось.
+     */
+    private static void rootPageFailed(SiteCrawl crawl, String url) {
+        if (url.equals(crawl.getSite().getUrl())) {
+            crawl.setLastError(ROOT_PAGE_ERROR);
+        }
+    }
+
+    private Page errorPage(SiteCrawl crawl, String url, int statusCode) {
+        Page page = new Page();
+        page.setCode(statusCode);
+        page.setPath(pathOf(url));
+        page.setSiteId(crawl.getSite());
+        return page;
+    }
+
+    private void pageDone(SiteCrawl crawl, String path) {
+        if (crawl.pageDone(path)) {
+            completeCrawl(crawl, true);
+        }
+    }
+
+    private void saveCheckpoints() {
+        for (SiteCrawl crawl : activeCrawls) {
+            try {
+                synchronized (checkpointLock) {
+                    // завершённый за это время обход уже очистил свою контрольную точку
+                    if (activeCrawls.contains(crawl)) {
+                        crawlCheckpointStore.save(crawl.getSite().getId(), new ArrayList<>(crawl.getPendingPaths()));
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Не удалось сохранить контрольную точку обхода сайта {}", crawl.getSite().getUrl(), e);
+            }
+        }
+    }
+
+    private void saveCheckpoint(SiteCrawl crawl, Collection<String> paths) {
+        try {
+            synchronized (checkpointLock) {
+                crawlCheckpointStore.save(crawl.getSite().getId(), paths);
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось сохранить контрольную точку обхода сайта {}", crawl.getSite().getUrl(), e);
+        }
+    }
+
+    /**
+     * Дописывает в контрольные точки ссылки, найденные на страницах пакета, до записи самих страниц.
+     */
+    private void addToCheckpoints(List<ParsedPage> batch) {
+        Map<SiteCrawl, List<String>> queuedPaths = new HashMap<>();
+        for (ParsedPage parsedPage : batch) {
+            if (!parsedPage.queuedPaths().isEmpty()) {
+                queuedPaths.computeIfAbsent(parsedPage.crawl(), crawl -> new ArrayList<>()).addAll(parsedPage.queuedPaths());
+            }
+        }
+        queuedPaths.forEach((crawl, paths) -> {
+            try {
+                synchronized (checkpointLock) {
+                    crawlCheckpointStore.add(crawl.getSite().getId(), paths);
+                }
+            } catch (Exception e) {
+                log.warn("Не удалось дописать контрольную точку обхода сайта {}", crawl.getSite().getUrl(), e);
+            }
+        });
+    }
+
+    private void completeCrawl(SiteCrawl crawl, boolean finished) {
+        if (!activeCrawls.remove(crawl)) {
+            return;
+        }
+        try {
+            crawl.getLemmaDictionary().flush();
+            if (finished) {
+                synchronized (checkpointLock) {
+                    crawlCheckpointStore.clear(crawl.getSite().getId());
+                }
+                indexBatchWriter.deleteUnusedLemmas(crawl.getSite().getId());
+            } else {
+                saveCheckpoint(crawl, new ArrayList<>(crawl.getPendingPaths()));
+            }
+            // строящееся поколение становится видимым при переключении, там кэш и очищается
+            if (crawl.getSite().isActive()) {
+                searchResultCache.invalidate();
+            }
+        } catch (Exception e) {
+            log.error("Ошибка завершения обхода сайта {}", crawl.getSite().getUrl(), e);
+        } finally {
+            crawl.getCompletion().complete(null);
+        }
+    }
+
+    private static String contentHash(String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String pathOf(String url) {
+        try {
+            String path = new URL(url).getPath();
+            return path.isEmpty() ? "/" : path;
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+    }
+
+    private static ExecutorService startStage(String name, int threads, StageStep step) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, namedThreads(name));
+
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        step.run();
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        log.error("Ошибка на стадии {}", name, e);
+                    }
+                }
+            });
+        }
+        return executor;
+    }
+
+    private interface StageStep {
+        void run() throws InterruptedException;
+    }
+
+    private record FetchedPage(SiteCrawl crawl, String url, int statusCode, String body,
+                               String etag, String lastModified, String contentHash, Integer knownPageId) {
+    }
+
+    /**
+     * @param html        содержимое страницы, {@code null} у страниц с ошибкой и удалённых
+     * @param pageText    текст страницы, {@code null} там же
+     * @param queuedPaths пути ссылок страницы, впервые поставленных в очередь при её разборе
+     */
+    private record ParsedPage(SiteCrawl crawl, Page page, String html, PageText pageText, TermCountMap lemmasCountMap,
+                              List<String> queuedPaths, boolean removed) {
+    }
+}
@@ -0,0 +1,52 @@
+package searchengine.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Сжатие возрастающих последовательностей int: разности соседних значений в varint,
+ * обычно один байт на значение.
+ */
+public final class DeltaCoding {
+
+    private DeltaCoding() {
+    }
+
+    public static byte[] encode(int[] values, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count + 8);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = values[i] - previous;
+            while ((delta & ~0x7F) != 0) {
+                out.write((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            out.write(delta);
+            previous = values[i];
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] encode(int[] values) {
+        return encode(values, values.length);
+    }
+
+    public static int[] decode(byte[] bytes) {
+        int[] values = new int[bytes.length];
+        int count = 0;
+        int previous = 0;
+        for (int position = 0; position < bytes.length; ) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            values[count++] = previous;
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,111 @@
+package searchengine.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Планировщик запросов с ограничением частоты и числа одновременных запросов к одному хосту.
+ * Отложенные запросы ждут в очереди хоста и не занимают потоки загрузки:
+ * задача передаётся исполнителю только когда хост готов принять следующий запрос.
+ * Если на одном хосте несколько сайтов с разными ограничениями, действуют самые строгие из них.
+ */
+public class HostScheduler {
+
+    private final Executor executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "crawl-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+
+    public HostScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void submit(String host, double requestsPerSecond, int maxInFlight, Runnable task) {
+        HostQueue hostQueue = hosts.computeIfAbsent(host, key -> new HostQueue(requestsPerSecond, maxInFlight));
+        synchronized (hostQueue) {
+            hostQueue.restrict(requestsPerSecond, maxInFlight);
+            hostQueue.pending.add(task);
+        }
+        queuedTasks.incrementAndGet();
+        dispatch(hostQueue);
+    }
+
+    public int getQueuedTasks() {
+        return queuedTasks.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        hosts.clear();
+        queuedTasks.set(0);
+    }
+
+    private void dispatch(HostQueue hostQueue) {
+        synchronized (hostQueue) {
+            while (!hostQueue.pending.isEmpty() && hostQueue.inFlight < hostQueue.maxInFlight) {
+                long now = System.nanoTime();
+                if (now < hostQueue.nextSlotNanos) {
+                    if (!hostQueue.timerArmed && !timer.isShutdown()) {
+                        hostQueue.timerArmed = true;
+                        timer.schedule(() -> {
+                            synchronized (hostQueue) {
+                                hostQueue.timerArmed = false;
+                            }
+                            dispatch(hostQueue);
+                        }, hostQueue.nextSlotNanos - now, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+
+                Runnable task = hostQueue.pending.poll();
+                hostQueue.inFlight++;
+                hostQueue.nextSlotNanos = now + hostQueue.intervalNanos;
+                queuedTasks.decrementAndGet();
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            synchronized (hostQueue) {
+                                hostQueue.inFlight--;
+                            }
+                            dispatch(hostQueue);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // задача не запущена: возвращается в очередь и не занимает место запроса к хосту
+                    hostQueue.inFlight--;
+                    hostQueue.pending.addFirst(task);
+                    queuedTasks.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class HostQueue {
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+        private long intervalNanos;
+        private int maxInFlight = Integer.MAX_VALUE;
+        private int inFlight;
+        private long nextSlotNanos;
+        private boolean timerArmed;
+
+        private HostQueue(double requestsPerSecond, int maxInFlight) {
+            restrict(requestsPerSecond, maxInFlight);
+        }
+
+        private void restrict(double requestsPerSecond, int maxInFlight) {
+            this.intervalNanos = Math.max(this.intervalNanos, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+            this.maxInFlight = Math.min(this.maxInFlight, Math.max(1, maxInFlight));
+        }
+    }
+}
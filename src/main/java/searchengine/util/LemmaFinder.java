@@ -1,93 +1,178 @@
 package searchengine.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 
+@Component
 public class LemmaFinder {
-    private static final String REGEX_RUS = "^[а-я]+$";
-    private static final String REGEX_ENG = "^[a-z]+$";
+    private static final int MIN_WORD_LENGTH = 3;
+    private static final int WORD_CACHE_SIZE = 200_000;
+    private static final WordForm NO_FORM = new WordForm(null, false);
 
     private static final String[] PARTICLES_NAMES = new String[]{"МЕЖД", "ПРЕДЛ", "СОЮЗ", "CONJ", "ADJECTIVE", "PREP", "ADVERB", "PART"};
     private final RussianLuceneMorphology russianLuceneMorphology;
     private final EnglishLuceneMorphology englishLuceneMorphology;
+    private final Cache<String, WordForm> wordForms = Caffeine.newBuilder()
+            .maximumSize(WORD_CACHE_SIZE)
+            .build();
 
 
-    private LemmaFinder(RussianLuceneMorphology russianLuceneMorphology, EnglishLuceneMorphology englishLuceneMorphology) {
-        this.russianLuceneMorphology = russianLuceneMorphology;
-        this.englishLuceneMorphology = englishLuceneMorphology;
+    public LemmaFinder() throws IOException {
+        this.russianLuceneMorphology = new RussianLuceneMorphology();
+        this.englishLuceneMorphology = new EnglishLuceneMorphology();
     }
 
-    public static LemmaFinder getInstance() throws IOException {
-        RussianLuceneMorphology russianLuceneMorphology = new RussianLuceneMorphology();
-        EnglishLuceneMorphology englishLuceneMorphology = new EnglishLuceneMorphology();
-        return new LemmaFinder(russianLuceneMorphology, englishLuceneMorphology);
-    }
 
+    public TermCountMap wordAndCountsCollector(String text) {
+        return wordAndCountsCollector(Jsoup.parse(text));
+    }
 
-    public Map<String, Integer> wordAndCountsCollector(String text) {
-        Map<String, Integer> wordCounts = new HashMap<>();
+    public TermCountMap wordAndCountsCollector(Document document) {
+        return countWords(document.body().text(), false);
+    }
 
-        String pureText = clearHtmlToText(Jsoup.parse(text).body().text());
+    /**
+     * @param withPositions запомнить для каждой леммы номера слов, в которых она встретилась,
+     *                      в нумерации {@link PageText#wordOffsets()}
+     */
+    public TermCountMap wordAndCountsCollector(PageText pageText, boolean withPositions) {
+        return countWords(pageText.text(), withPositions);
+    }
 
-        String[] words = pureText.split(" ");
+    /**
+     * Нормальная форма отдельного слова текста или {@code null}, если слово не даёт леммы
+     * (короткое, служебное, из букв разных алфавитов).
+     */
+    public String normalFormOf(String word) {
+        if (word.length() < MIN_WORD_LENGTH) {
+            return null;
+        }
+        char[] lowerCase = new char[word.length()];
+        boolean hasRussian = false;
+        boolean hasEnglish = false;
+        for (int i = 0; i < lowerCase.length; i++) {
+            char c = toLowerCase(word.charAt(i));
+            hasRussian |= c >= 'а' && c <= 'я';
+            hasEnglish |= c >= 'a' && c <= 'z';
+            lowerCase[i] = c;
+        }
+        return hasRussian != hasEnglish ? normalForm(new String(lowerCase)) : null;
+    }
 
-        for (String word : words) {
-            if (word.length() < 3) {
-                continue;
+    /**
+     * Начала слов текста: непрерывных последовательностей русских или латинских букв.
+     */
+    public static int[] wordOffsets(String text) {
+        int[] offsets = new int[16];
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            boolean letter = isWordChar(text.charAt(i));
+            if (letter && !inWord) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = i;
             }
+            inWord = letter;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
 
-            if (word.matches(REGEX_RUS)) {
-                List<String> russianNormalForms = russianLuceneMorphology.getNormalForms(word);
+    /**
+     * Конец слова, начинающегося в позиции {@code start}.
+     */
+    public static int wordEnd(String text, int start) {
+        int end = start;
+        while (end < text.length() && isWordChar(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
 
-                List<String> wordBaseForms = russianLuceneMorphology.getMorphInfo(word);
-                if (anyWordBaseBelongToParticle(wordBaseForms)) {
-                    continue;
+    private TermCountMap countWords(String pureText, boolean withPositions) {
+        TermCountMap wordCounts = new TermCountMap();
+
+        char[] word = new char[64];
+        int length = 0;
+        int position = 0;
+        boolean hasRussian = false;
+        boolean hasEnglish = false;
+
+        for (int i = 0, n = pureText.length(); i <= n; i++) {
+            char c = i < n ? toLowerCase(pureText.charAt(i)) : ' ';
+
+            if (c >= 'а' && c <= 'я') {
+                hasRussian = true;
+            } else if (c >= 'a' && c <= 'z') {
+                hasEnglish = true;
+            } else {
+                if (length >= MIN_WORD_LENGTH && hasRussian != hasEnglish) {
+                    String normalForm = normalForm(new String(word, 0, length));
+                    if (normalForm != null && withPositions) {
+                        wordCounts.addPosition(normalForm, position);
+                    } else if (normalForm != null) {
+                        wordCounts.increment(normalForm);
+                    }
                 }
-                if (russianNormalForms.isEmpty()) {
-                    continue;
+                if (length > 0) {
+                    position++;
                 }
-                addWordAndCountToMap(wordCounts, russianNormalForms);
+                length = 0;
+                hasRussian = false;
+                hasEnglish = false;
+                continue;
             }
 
-            if (word.matches(REGEX_ENG)) {
-                List<String> englishNormalForms = englishLuceneMorphology.getNormalForms(word);
-
-                List<String> wordBaseForms = englishLuceneMorphology.getMorphInfo(word);
-                if (anyWordBaseBelongToParticle(wordBaseForms)) {
-                    continue;
-                }
-                if (englishNormalForms.isEmpty()) {
-                    continue;
-                }
-                addWordAndCountToMap(wordCounts, englishNormalForms);
+            if (length == word.length) {
+                word = Arrays.copyOf(word, length * 2);
             }
+            word[length++] = c;
         }
         return wordCounts;
     }
 
-    private void addWordAndCountToMap(Map<String, Integer> wordCounts, List<String> normalFormsList) {
-        String normalWord = normalFormsList.get(0);
-        if (wordCounts.containsKey(normalWord)) {
-            wordCounts.put(normalWord, wordCounts.get(normalWord) + 1);
-        } else {
-            wordCounts.put(normalWord, 1);
+    private String normalForm(String word) {
+        WordForm wordForm = wordForms.get(word, this::analyzeWord);
+        return wordForm.particle() ? null : wordForm.normalForm();
+    }
+
+    private WordForm analyzeWord(String word) {
+        if (word.charAt(0) >= 'а') {
+            return toWordForm(russianLuceneMorphology.getMorphInfo(word), russianLuceneMorphology.getNormalForms(word));
+        }
+        return toWordForm(englishLuceneMorphology.getMorphInfo(word), englishLuceneMorphology.getNormalForms(word));
+    }
+
+    private WordForm toWordForm(List<String> wordBaseForms, List<String> normalForms) {
+        if (anyWordBaseBelongToParticle(wordBaseForms)) {
+            return new WordForm(null, true);
+        }
+        if (normalForms.isEmpty()) {
+            return NO_FORM;
         }
+        return new WordForm(normalForms.get(0), false);
     }
 
-    private String clearHtmlToText(String textHtml) {
-        return textHtml.toLowerCase(Locale.ROOT)
-                .replaceAll("<script.*?</script>", " ")
-                .replaceAll("<[^>]*>", " ")
-                .replaceAll("([^а-яa-z])", " ")
-                .replaceAll("\\s+", " ")
-                .trim();
+    private static boolean isWordChar(char c) {
+        c = toLowerCase(c);
+        return c >= 'а' && c <= 'я' || c >= 'a' && c <= 'z';
+    }
+
+    private static char toLowerCase(char c) {
+        if (c >= 'A' && c <= 'Z' || c >= 'А' && c <= 'Я') {
+            return (char) (c + 32);
+        }
+        return c;
     }
 
     private boolean anyWordBaseBelongToParticle(List<String> wordBaseForms) {
@@ -102,4 +187,7 @@ public class LemmaFinder {
         }
         return false;
     }
+
+    private record WordForm(String normalForm, boolean particle) {
+    }
 }
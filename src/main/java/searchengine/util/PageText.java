@@ -0,0 +1,23 @@
+package searchengine.util;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * Заголовок и очищенный текст страницы с началами слов. Извлекается один раз при индексации
+ * и хранится в page_content, чтобы сниппеты строились без разбора HTML.
+ *
+ * @param wordOffsets начала слов в {@code text} в том же разбиении на слова, что и в {@link LemmaFinder}
+ */
+public record PageText(String title, String text, int[] wordOffsets) {
+
+    private static final int MAX_TITLE_LENGTH = 500;
+
+    public static PageText of(Document document) {
+        String title = document.title();
+        if (title.length() > MAX_TITLE_LENGTH) {
+            title = title.substring(0, MAX_TITLE_LENGTH);
+        }
+        String text = document.body() == null ? "" : document.body().text();
+        return new PageText(title, text, LemmaFinder.wordOffsets(text));
+    }
+}
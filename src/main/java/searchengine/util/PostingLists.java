@@ -0,0 +1,70 @@
+package searchengine.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Операции над отсортированными по возрастанию списками идентификаторов страниц.
+ */
+public final class PostingLists {
+
+    private PostingLists() {
+    }
+
+    public static int[] toSortedArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    /**
+     * Пересечение двух списков: проход по короткому списку с экспоненциальным
+     * поиском позиции в длинном, так что стоимость зависит в основном от длины короткого.
+     */
+    public static int[] intersect(int[] first, int[] second) {
+        int[] shorter = first.length <= second.length ? first : second;
+        int[] longer = shorter == first ? second : first;
+
+        int[] result = new int[shorter.length];
+        int size = 0;
+        int position = 0;
+
+        for (int value : shorter) {
+            position = advance(longer, position, value);
+            if (position == longer.length) {
+                break;
+            }
+            if (longer[position] == value) {
+                result[size++] = value;
+                position++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Первая позиция не меньше {@code from}, на которой значение не меньше {@code target},
+     * или длина массива, если такой позиции нет.
+     */
+    public static int advance(int[] postings, int from, int target) {
+        if (from >= postings.length || postings[from] >= target) {
+            return from;
+        }
+
+        int step = 1;
+        int low = from;
+        int high = from + step;
+        while (high < postings.length && postings[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high, postings.length);
+
+        int index = Arrays.binarySearch(postings, low + 1, high, target);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -0,0 +1,60 @@
+package searchengine.util;
+
+import lombok.Getter;
+import lombok.Setter;
+import searchengine.config.SiteConfig;
+import searchengine.model.Site;
+import searchengine.repository.PageRepository.PageState;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Состояние обхода одного сайта в {@link CrawlPipeline}.
+ * Обход завершён, когда обработаны все поставленные в очередь страницы.
+ * При повторном обходе {@code knownPages} хранит уже проиндексированные страницы сайта по пути,
+ * а {@code pendingPaths} - ещё не обработанные страницы, которые сохраняются в контрольной точке.
+ */
+@Getter
+public class SiteCrawl {
+
+    private final Site site;
+    private final String host;
+    private final double requestsPerSecond;
+    private final int maxInFlight;
+    private final SiteLemmaDictionary lemmaDictionary;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final Set<String> visitedPaths = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingPaths = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingPages = new AtomicInteger();
+    private final Map<String, PageState> knownPages;
+    @Setter
+    private volatile String lastError;
+
+    public SiteCrawl(Site site, SiteConfig siteConfig, SiteLemmaDictionary lemmaDictionary, Map<String, PageState> knownPages) {
+        this.site = site;
+        this.host = URI.create(site.getUrl()).getHost();
+        this.requestsPerSecond = siteConfig.getRequestsPerSecond();
+        this.maxInFlight = siteConfig.getMaxInFlight();
+        this.lemmaDictionary = lemmaDictionary;
+        this.knownPages = knownPages;
+    }
+
+    boolean markVisited(String path) {
+        return visitedPaths.add(path);
+    }
+
+    void pageQueued(String path) {
+        pendingPaths.add(path);
+        pendingPages.incrementAndGet();
+    }
+
+    boolean pageDone(String path) {
+        pendingPaths.remove(path);
+        return pendingPages.decrementAndGet() == 0;
+    }
+}
@@ -0,0 +1,155 @@
+package searchengine.util;
+
+import searchengine.model.Page;
+import searchengine.model.Site;
+import searchengine.repository.IndexBatchWriter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Словарь лемм сайта на время обхода: лемма -> id в таблице lemma и счётчик частоты.
+ * Частоты копятся в памяти и сбрасываются в базу приращениями: для строящегося поколения сайта
+ * раз в {@link #FLUSH_EVERY_PAGES} страниц, для активного - после каждой записи, иначе поиск
+ * (он берёт только леммы с ненулевой частотой) не видел бы новых страниц, а IDF отставал бы.
+ */
+public class SiteLemmaDictionary {
+
+    private static final int FLUSH_EVERY_PAGES = 100;
+
+    private final Site site;
+    private final IndexBatchWriter indexBatchWriter;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // леммы, частота которых выросла после последнего сброса
+    private final Set<Entry> changed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pagesSinceFlush = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public SiteLemmaDictionary(Site site, IndexBatchWriter indexBatchWriter) {
+        this.site = site;
+        this.indexBatchWriter = indexBatchWriter;
+    }
+
+    public void writePage(Page page, TermCountMap lemmasCountMap) {
+        writePages(Map.of(page, lemmasCountMap));
+    }
+
+    public void writePages(Map<Page, TermCountMap> pagesLemmas) {
+        Set<String> lemmas = new HashSet<>();
+        pagesLemmas.values().forEach(lemmasCountMap -> lemmas.addAll(lemmasCountMap.terms()));
+
+        Map<String, Integer> lemmaIds = resolveIds(lemmas);
+        indexBatchWriter.raiseMaxRanks(raisedMaxRanks(pagesLemmas, lemmaIds));
+        indexBatchWriter.insertIndexes(pagesLemmas, lemmaIds);
+
+        pagesLemmas.values().forEach(lemmasCountMap -> lemmasCountMap.forEach((lemma, count) -> {
+            Entry entry = entries.get(lemma);
+            entry.frequency.increment();
+            changed.add(entry);
+        }));
+
+        if (site.isActive()) {
+            flush();
+        } else if (pagesSinceFlush.addAndGet(pagesLemmas.size()) >= FLUSH_EVERY_PAGES && flushLock.tryLock()) {
+            try {
+                pagesSinceFlush.set(0);
+                flushFrequencies();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    public void flush() {
+        flushLock.lock();
+        try {
+            pagesSinceFlush.set(0);
+            flushFrequencies();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private Map<String, Integer> resolveIds(Collection<String> lemmas) {
+        Map<String, Integer> lemmaIds = new HashMap<>();
+        List<String> unknownLemmas = new ArrayList<>();
+
+        for (String lemma : lemmas) {
+            Entry entry = entries.computeIfAbsent(lemma, key -> new Entry());
+            if (entry.id == 0) {
+                unknownLemmas.add(lemma);
+            } else {
+                lemmaIds.put(lemma, entry.id);
+            }
+        }
+
+        if (!unknownLemmas.isEmpty()) {
+            indexBatchWriter.insertLemmas(site.getId(), unknownLemmas).forEach((lemma, id) -> {
+                Entry entry = entries.get(lemma);
+                if (entry != null) {
+                    entry.id = id;
+                    lemmaIds.put(lemma, id);
+                }
+            });
+        }
+        return lemmaIds;
+    }
+
+    /**
+     * Границы rank, которые выросли на этих страницах. В отличие от частот они пишутся в базу сразу,
+     * иначе поиск с отсечением пропустил бы только что проиндексированные страницы.
+     */
+    private Map<Integer, Integer> raisedMaxRanks(Map<Page, TermCountMap> pagesLemmas, Map<String, Integer> lemmaIds) {
+        Map<Integer, Integer> raised = new HashMap<>();
+        pagesLemmas.values().forEach(lemmasCountMap -> lemmasCountMap.forEach((lemma, rank) -> {
+            Integer lemmaId = lemmaIds.get(lemma);
+            if (lemmaId != null && entries.get(lemma).maxRank.getAndAccumulate(rank, Math::max) < rank) {
+                raised.merge(lemmaId, rank, Math::max);
+            }
+        }));
+        return raised;
+    }
+
+    private void flushFrequencies() {
+        Map<Integer, Long> frequencyDeltas = new HashMap<>();
+        List<Runnable> commits = new ArrayList<>();
+        List<Entry> rollback = new ArrayList<>();
+
+        for (Iterator<Entry> iterator = changed.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.id == 0) {
+                continue;
+            }
+            // удаляется до чтения суммы: приращение после этого снова добавит лемму
+            iterator.remove();
+            long total = entry.frequency.sum();
+            long delta = total - entry.flushedFrequency;
+            if (delta > 0) {
+                frequencyDeltas.put(entry.id, delta);
+                commits.add(() -> entry.flushedFrequency = total);
+                rollback.add(entry);
+            }
+        }
+
+        if (frequencyDeltas.isEmpty()) {
+            return;
+        }
+        try {
+            indexBatchWriter.addLemmaFrequencies(frequencyDeltas);
+        } catch (RuntimeException e) {
+            changed.addAll(rollback);
+            throw e;
+        }
+        commits.forEach(Runnable::run);
+    }
+
+    private static class Entry {
+        private volatile int id;
+        private final LongAdder frequency = new LongAdder();
+        private final AtomicInteger maxRank = new AtomicInteger();
+        private long flushedFrequency;
+    }
+}
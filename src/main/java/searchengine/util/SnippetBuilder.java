@@ -0,0 +1,106 @@
+package searchengine.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Сниппет по сохранённому тексту страницы: окно из {@link #WINDOW_WORDS} слов,
+ * в котором больше всего разных лемм запроса, с выделением совпадений тегом {@code <b>}.
+ */
+@Component
+public class SnippetBuilder {
+
+    private static final int WINDOW_WORDS = 30;
+    private static final int CONTEXT_WORDS = 5;
+
+    @Autowired
+    private LemmaFinder lemmaFinder;
+
+    /**
+     * @param wordLemmas общий для всех результатов запроса кэш: слово текста -> лемма запроса или пустая строка
+     */
+    public String build(PageText pageText, Set<String> queryLemmas, Map<String, String> wordLemmas) {
+        String text = pageText.text();
+        int[] offsets = pageText.wordOffsets();
+
+        List<Integer> matchWords = new ArrayList<>();
+        List<String> matchLemmas = new ArrayList<>();
+        for (int i = 0; i < offsets.length; i++) {
+            String lemma = queryLemma(text, offsets[i], queryLemmas, wordLemmas);
+            if (lemma != null) {
+                matchWords.add(i);
+                matchLemmas.add(lemma);
+            }
+        }
+
+        if (matchWords.isEmpty()) {
+            return render(text, offsets, 0, Math.min(offsets.length, WINDOW_WORDS), Set.of());
+        }
+
+        int bestStart = 0;
+        int bestDistinct = 0;
+        int bestMatches = 0;
+        Map<String, Integer> windowLemmas = new HashMap<>();
+        for (int left = 0, right = 0; right < matchWords.size(); right++) {
+            windowLemmas.merge(matchLemmas.get(right), 1, Integer::sum);
+            while (matchWords.get(right) - matchWords.get(left) >= WINDOW_WORDS) {
+                windowLemmas.computeIfPresent(matchLemmas.get(left), (lemma, count) -> count == 1 ? null : count - 1);
+                left++;
+            }
+            int matches = right - left + 1;
+            if (windowLemmas.size() > bestDistinct || windowLemmas.size() == bestDistinct && matches > bestMatches) {
+                bestStart = matchWords.get(left);
+                bestDistinct = windowLemmas.size();
+                bestMatches = matches;
+            }
+        }
+
+        int from = Math.max(0, bestStart - CONTEXT_WORDS);
+        int to = Math.min(offsets.length, from + WINDOW_WORDS + CONTEXT_WORDS);
+        return render(text, offsets, from, to, new HashSet<>(matchWords));
+    }
+
+    private String queryLemma(String text, int start, Set<String> queryLemmas, Map<String, String> wordLemmas) {
+        String word = text.substring(start, LemmaFinder.wordEnd(text, start));
+        String lemma = wordLemmas.computeIfAbsent(word, key -> {
+            String normalForm = lemmaFinder.normalFormOf(key);
+            return normalForm != null && queryLemmas.contains(normalForm) ? normalForm : "";
+        });
+        return lemma.isEmpty() ? null : lemma;
+    }
+
+    private static String render(String text, int[] offsets, int from, int to, Set<Integer> matchWords) {
+        if (from >= to) {
+            return "";
+        }
+        StringBuilder snippet = new StringBuilder(from > 0 ? "..." : "");
+        int position = offsets[from];
+        for (int i = from; i < to; i++) {
+            int end = LemmaFinder.wordEnd(text, offsets[i]);
+            escape(text, position, offsets[i], snippet);
+            if (matchWords.contains(i)) {
+                snippet.append("<b>");
+                escape(text, offsets[i], end, snippet);
+                snippet.append("</b>");
+            } else {
+                escape(text, offsets[i], end, snippet);
+            }
+            position = end;
+        }
+        return snippet.append(to < offsets.length ? "..." : "").toString();
+    }
+
+    private static void escape(String text, int from, int to, StringBuilder out) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                default -> out.append(c);
+            }
+        }
+    }
+}
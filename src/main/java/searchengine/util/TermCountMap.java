@@ -0,0 +1,153 @@
+package searchengine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Счётчик вхождений терминов на открытой адресации с примитивными int-значениями.
+ */
+public class TermCountMap {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] keys;
+    private int[] counts;
+    private int[][] positions;
+    private int size;
+    private int totalCount;
+
+    public TermCountMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TermCountMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new String[capacity];
+        counts = new int[capacity];
+    }
+
+    public void increment(String term) {
+        add(term, 1);
+    }
+
+    public void add(String term, int delta) {
+        int slot = findSlot(keys, term);
+        if (keys[slot] == null) {
+            keys[slot] = term;
+            size++;
+        }
+        counts[slot] += delta;
+        totalCount += delta;
+
+        if (size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Учитывает вхождение термина вместе с его позицией (номером слова в тексте).
+     * Позиции хранятся только для терминов, добавленных этим методом, и по возрастанию,
+     * если позиции передаются по возрастанию.
+     */
+    public void addPosition(String term, int position) {
+        if (positions == null) {
+            positions = new int[keys.length][];
+        }
+        int slot = findSlot(keys, term);
+        int count = keys[slot] == null ? 0 : counts[slot];
+        int[] termPositions = positions[slot];
+        if (termPositions == null) {
+            termPositions = new int[2];
+        } else if (count == termPositions.length) {
+            termPositions = Arrays.copyOf(termPositions, count * 2);
+        }
+        termPositions[count] = position;
+        positions[slot] = termPositions;
+        add(term, 1);
+    }
+
+    /**
+     * Позиции термина или {@code null}, если позиции не собирались.
+     */
+    public int[] positions(String term) {
+        if (positions == null) {
+            return null;
+        }
+        int slot = findSlot(keys, term);
+        return keys[slot] == null || positions[slot] == null ? null : Arrays.copyOf(positions[slot], counts[slot]);
+    }
+
+    public int get(String term) {
+        int slot = findSlot(keys, term);
+        return keys[slot] == null ? 0 : counts[slot];
+    }
+
+    public boolean contains(String term) {
+        return keys[findSlot(keys, term)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Сумма всех счётчиков, то есть число учтённых слов.
+     */
+    public int totalCount() {
+        return totalCount;
+    }
+
+    public List<String> terms() {
+        List<String> terms = new ArrayList<>(size);
+        for (String key : keys) {
+            if (key != null) {
+                terms.add(key);
+            }
+        }
+        return terms;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int[][] oldPositions = positions;
+        keys = new String[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        positions = oldPositions == null ? null : new int[oldKeys.length * 2][];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = findSlot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                if (oldPositions != null) {
+                    positions[slot] = oldPositions[i];
+                }
+            }
+        }
+    }
+
+    private static int findSlot(String[] keys, String term) {
+        int mask = keys.length - 1;
+        int hash = term.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(term)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
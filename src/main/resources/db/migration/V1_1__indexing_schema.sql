@@ -0,0 +1,103 @@
+-- Columns, tables and keys added to the release schema (V1) by the indexing and search changes.
+-- Runs before V2, which relies on them, and before V3, which moves page.content into page_content.
+
+-- BM25 corpus statistics, maintained by IndexBatchWriter; pages indexed before have token_count 0 and are not counted
+ALTER TABLE site
+    ADD COLUMN indexed_pages INT    NOT NULL DEFAULT 0,
+    ADD COLUMN total_tokens  BIGINT NOT NULL DEFAULT 0;
+
+-- conditional requests on recrawl, change detection, BM25 document length and the search result title
+ALTER TABLE page
+    ADD COLUMN etag          VARCHAR(255),
+    ADD COLUMN last_modified VARCHAR(64),
+    ADD COLUMN content_hash  CHAR(64),
+    ADD COLUMN token_count   INT NOT NULL DEFAULT 0,
+    ADD COLUMN title         VARCHAR(500) CHARACTER SET utf8mb4;
+
+-- Unique (site_id, path) for page lookups. Without the key concurrent crawls could store a page twice;
+-- the later copies are dropped together with their index rows (ON DELETE CASCADE).
+DELETE duplicate
+FROM page duplicate
+         JOIN (SELECT site_id, path, MIN(id) AS original_id
+               FROM page
+               GROUP BY site_id, path
+               HAVING COUNT(*) > 1) original
+              ON original.site_id = duplicate.site_id AND original.path = duplicate.path AND duplicate.id <> original.original_id;
+
+-- A utf8mb3 database may already have the full-length key from ddl-auto, so it is only added when missing.
+-- prefix: a full VARCHAR(1000) utf8mb4 column exceeds the 3072-byte InnoDB key limit
+SET @add_path_key = IF(EXISTS(SELECT 1
+                              FROM information_schema.statistics
+                              WHERE table_schema = DATABASE()
+                                AND table_name = 'page'
+                                AND index_name = 'siteId_path_index'),
+                       'DO 0',
+                       'ALTER TABLE page ADD UNIQUE KEY siteId_path_index (site_id, path(760))');
+PREPARE add_path_key FROM @add_path_key;
+EXECUTE add_path_key;
+DEALLOCATE PREPARE add_path_key;
+
+-- compressed page content, filled from page.content by V3
+CREATE TABLE page_content
+(
+    page_id      INT        NOT NULL,
+    html         MEDIUMBLOB NOT NULL,
+    text         MEDIUMBLOB,
+    word_offsets MEDIUMBLOB,
+    PRIMARY KEY (page_id),
+    CONSTRAINT page_content_page_fk FOREIGN KEY (page_id) REFERENCES page (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
+
+-- paths still to be crawled, so an interrupted crawl resumes
+CREATE TABLE crawl_frontier
+(
+    id      INT           NOT NULL AUTO_INCREMENT,
+    site_id INT           NOT NULL,
+    path    VARCHAR(1000) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT crawl_frontier_site_fk FOREIGN KEY (site_id) REFERENCES site (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
+
+-- Lemmas are compared exactly. Under the default accent-insensitive collation different lemmas such as
+-- "небо" and "нёбо" would collide on the unique key below and be merged by the upserts.
+ALTER TABLE lemma
+    MODIFY lemma VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL;
+
+-- Unique (site_id, lemma) for the lemma upserts. Concurrent indexing could insert a lemma twice;
+-- index rows of the duplicates are moved to the oldest row, then the duplicates are deleted.
+CREATE TEMPORARY TABLE lemma_duplicate AS
+SELECT duplicate.id AS duplicate_id, original.original_id
+FROM lemma duplicate
+         JOIN (SELECT site_id, lemma, MIN(id) AS original_id
+               FROM lemma
+               GROUP BY site_id, lemma
+               HAVING COUNT(*) > 1) original
+              ON original.site_id = duplicate.site_id AND original.lemma = duplicate.lemma AND duplicate.id <> original.original_id;
+
+UPDATE `index` i
+    JOIN lemma_duplicate d ON d.duplicate_id = i.lemma_id
+SET i.lemma_id = d.original_id;
+
+DELETE l
+FROM lemma l
+         JOIN lemma_duplicate d ON d.duplicate_id = l.id;
+
+DROP TEMPORARY TABLE lemma_duplicate;
+
+-- max_rank: upper bound of the lemma's rank, used to prune BM25 scoring
+ALTER TABLE lemma
+    ADD UNIQUE KEY siteId_lemma_index (site_id, lemma),
+    ADD COLUMN max_rank FLOAT NULL;
+
+-- Frequencies of merged lemmas and of lemmas on deleted duplicate pages are recounted; max_rank is filled for existing lemmas.
+-- A (page, lemma) pair may now occur twice, so pages are counted distinctly; V2 removes such rows.
+UPDATE lemma l
+    LEFT JOIN (SELECT lemma_id, COUNT(DISTINCT page_id) AS pages, MAX(`rank`) AS max_rank
+               FROM `index`
+               GROUP BY lemma_id) postings ON postings.lemma_id = l.id
+SET l.frequency = IFNULL(postings.pages, 0),
+    l.max_rank  = postings.max_rank;
+
+-- word positions of the lemma on the page, see DeltaCoding; NULL when indexing ran without positions
+ALTER TABLE `index`
+    ADD COLUMN positions BLOB;
@@ -0,0 +1,49 @@
+-- Schema of the last release, as ddl-auto: update created it from the entities.
+-- Databases created that way are baselined at version 1 (see spring.flyway in application.yaml) and skip this script;
+-- everything added since is in later migrations.
+
+CREATE TABLE site
+(
+    id          INT                                    NOT NULL AUTO_INCREMENT,
+    status      ENUM ('INDEXING', 'INDEXED', 'FAILED') NOT NULL,
+    status_time DATETIME(6)                            NOT NULL,
+    last_error  TEXT,
+    url         VARCHAR(255)                           NOT NULL,
+    name        VARCHAR(255)                           NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT site_name_unique UNIQUE (name)
+) ENGINE = InnoDB;
+
+-- The entity also declared a unique (site_id, path) key, but a full VARCHAR(1000) utf8mb4 key exceeds
+-- the 3072-byte InnoDB limit, so ddl-auto failed to create it on utf8mb4 databases. V1_1 adds it with a prefix.
+CREATE TABLE page
+(
+    id      INT                                NOT NULL AUTO_INCREMENT,
+    site_id INT                                NOT NULL,
+    path    VARCHAR(1000)                      NOT NULL,
+    code    INT                                NOT NULL,
+    content MEDIUMTEXT CHARACTER SET utf8mb4   NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT page_site_fk FOREIGN KEY (site_id) REFERENCES site (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
+
+CREATE TABLE lemma
+(
+    id        INT          NOT NULL AUTO_INCREMENT,
+    site_id   INT          NOT NULL,
+    lemma     VARCHAR(255) NOT NULL,
+    frequency INT          NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT lemma_site_fk FOREIGN KEY (site_id) REFERENCES site (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
+
+CREATE TABLE `index`
+(
+    id       INT   NOT NULL AUTO_INCREMENT,
+    page_id  INT   NOT NULL,
+    lemma_id INT   NOT NULL,
+    `rank`   FLOAT NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT index_page_fk FOREIGN KEY (page_id) REFERENCES page (id) ON DELETE CASCADE,
+    CONSTRAINT index_lemma_fk FOREIGN KEY (lemma_id) REFERENCES lemma (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
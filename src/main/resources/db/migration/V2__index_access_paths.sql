@@ -0,0 +1,11 @@
+-- Postings of a lemma in page order, read from the index alone:
+-- findPostingsByLemmaId (ORDER BY page_id), findRanksByPageIds and the memory/segment loaders.
+CREATE INDEX lemma_page_rank_index ON `index` (lemma_id, page_id, `rank`);
+
+-- One row per (page, lemma); also serves deletes and position lookups by page.
+-- Duplicates come from concurrent writes of old versions and from the lemma merge in V1_1; the join goes through the page_id foreign key index.
+DELETE duplicate
+FROM `index` duplicate
+         JOIN `index` original
+              ON original.page_id = duplicate.page_id AND original.lemma_id = duplicate.lemma_id AND original.id < duplicate.id;
+CREATE UNIQUE INDEX page_lemma_index ON `index` (page_id, lemma_id);
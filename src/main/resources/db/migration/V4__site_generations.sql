@@ -0,0 +1,22 @@
+-- Full reindexing builds a new, inactive generation of the site next to the active one and switches them atomically.
+
+ALTER TABLE site
+    ADD COLUMN active BOOLEAN NOT NULL DEFAULT TRUE;
+
+-- At most one active generation per url; inactive rows (a shadow being built, an old generation being dropped) are not constrained.
+ALTER TABLE site
+    ADD COLUMN active_url VARCHAR(255) AS (IF(active, url, NULL)) STORED,
+    ADD UNIQUE INDEX site_active_url_index (active_url);
+
+-- Both generations share the site name. The unique key was generated by Hibernate on older databases, so its name is looked up.
+SET @drop_name_unique = (SELECT CONCAT('ALTER TABLE site DROP INDEX `', index_name, '`')
+                         FROM information_schema.statistics
+                         WHERE table_schema = DATABASE()
+                           AND table_name = 'site'
+                           AND column_name = 'name'
+                           AND non_unique = 0
+                         LIMIT 1);
+SET @drop_name_unique = IFNULL(@drop_name_unique, 'DO 0');
+PREPARE drop_name_unique FROM @drop_name_unique;
+EXECUTE drop_name_unique;
+DEALLOCATE PREPARE drop_name_unique;
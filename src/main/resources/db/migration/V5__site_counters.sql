@@ -0,0 +1,13 @@
+-- Page, lemma and index counts per site. The application keeps them in memory and writes them back periodically,
+-- so statistics no longer count rows on every request.
+
+ALTER TABLE site
+    ADD COLUMN page_count  INT    NOT NULL DEFAULT 0,
+    ADD COLUMN lemma_count INT    NOT NULL DEFAULT 0,
+    ADD COLUMN index_count BIGINT NOT NULL DEFAULT 0;
+
+-- one-time backfill for sites indexed before the counters existed
+UPDATE site s
+SET s.page_count  = (SELECT COUNT(*) FROM page p WHERE p.site_id = s.id),
+    s.lemma_count = (SELECT COUNT(*) FROM lemma l WHERE l.site_id = s.id),
+    s.index_count = (SELECT COUNT(*) FROM `index` i JOIN page p ON p.id = i.page_id WHERE p.site_id = s.id);
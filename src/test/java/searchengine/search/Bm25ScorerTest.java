@@ -0,0 +1,134 @@
+package searchengine.search;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import searchengine.search.TopK.ScoredPage;
+import searchengine.util.TermCountMap;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25ScorerTest {
+
+    private static final int SITE_ID = 1;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // доля страниц с леммой: от почти всех до редких
+    private static final Map<String, Double> LEMMAS = Map.of(
+            "частый", 0.95, "обычный", 0.6, "средний", 0.3, "редкий", 0.08, "уникальный", 0.01);
+
+    @Test
+    void prunedTopPagesMatchExhaustiveScoring() {
+        Random random = new Random(20);
+        Map<Integer, TermCountMap> pages = randomCorpus(random, 3500);
+        CountingIndex index = new CountingIndex();
+        index.addPages(SITE_ID, pages);
+        Bm25Scorer scorer = scorer(index);
+
+        List<String> vocabulary = new ArrayList<>(new TreeSet<>(LEMMAS.keySet()));
+        for (int round = 0; round < 60; round++) {
+            Collections.shuffle(vocabulary, random);
+            List<Term> terms = vocabulary.subList(0, 1 + random.nextInt(vocabulary.size())).stream()
+                    .map(lemma -> index.findTerm(SITE_ID, lemma))
+                    .filter(Objects::nonNull)
+                    .toList();
+            if (terms.isEmpty()) {
+                continue;
+            }
+            CorpusStatistics statistics = CorpusStatistics.of(index, List.of(SITE_ID), terms);
+            List<ScoredPage> exhaustive = exhaustive(pages, terms, statistics);
+            assertEquals(exhaustive.size(), index.countPages(terms));
+
+            for (int k : new int[]{1, 10, 200, exhaustive.size() + 1}) {
+                List<ScoredPage> expected = exhaustive.subList(0, Math.min(k, exhaustive.size()));
+                assertSamePages(expected, scorer.topPages(terms, k, statistics));
+
+                int[] candidates = exhaustive.stream().mapToInt(ScoredPage::pageId).sorted().toArray();
+                assertSamePages(expected, scorer.topPages(terms, candidates, k, statistics));
+            }
+        }
+    }
+
+    @Test
+    void frequentLemmasAreProbedOnlyForSurvivingCandidates() {
+        Map<Integer, TermCountMap> pages = randomCorpus(new Random(21), 3500);
+        CountingIndex index = new CountingIndex();
+        index.addPages(SITE_ID, pages);
+        List<Term> terms = List.of(index.findTerm(SITE_ID, "частый"), index.findTerm(SITE_ID, "обычный"), index.findTerm(SITE_ID, "средний"));
+        CorpusStatistics statistics = CorpusStatistics.of(index, List.of(SITE_ID), terms);
+
+        scorer(index).topPages(terms, 10, statistics);
+
+        int candidates = index.findTerm(SITE_ID, "средний").frequency();
+        assertTrue(index.probedPages < candidates * (terms.size() - 1),
+                "проверено " + index.probedPages + " при " + candidates + " кандидатах");
+    }
+
+    private static Bm25Scorer scorer(SearchIndex index) {
+        Bm25Scorer scorer = new Bm25Scorer();
+        ReflectionTestUtils.setField(scorer, "searchIndex", index);
+        return scorer;
+    }
+
+    /**
+     * Оценка каждой страницы со всеми леммами по формуле BM25 и полная сортировка.
+     */
+    private static List<ScoredPage> exhaustive(Map<Integer, TermCountMap> pages, List<Term> terms, CorpusStatistics statistics) {
+        double averageLength = (double) statistics.documents().totalTokens() / statistics.documents().documentCount();
+        List<ScoredPage> scored = new ArrayList<>();
+        pages.forEach((pageId, lemmas) -> {
+            double score = 0;
+            for (Term term : terms) {
+                int frequency = lemmas.get(term.lemma());
+                if (frequency == 0) {
+                    return;
+                }
+                int documentFrequency = statistics.documentFrequency(term);
+                int documentCount = statistics.documents().documentCount();
+                double idf = Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                double lengthNorm = 1 - B + B * lemmas.totalCount() / averageLength;
+                score += idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+            }
+            scored.add(new ScoredPage(pageId, score));
+        });
+        scored.sort(Comparator.comparingDouble(ScoredPage::score).reversed().thenComparingInt(ScoredPage::pageId));
+        return scored;
+    }
+
+    private static void assertSamePages(List<ScoredPage> expected, List<ScoredPage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).pageId(), actual.get(i).pageId(), "страница на месте " + i);
+            assertEquals(expected.get(i).score(), actual.get(i).score(), 1e-9, "оценка на месте " + i);
+        }
+    }
+
+    /**
+     * Ранги с длинным хвостом, как у реальных страниц, и у каждой страницы своя длина, чтобы оценки не совпадали.
+     */
+    private static Map<Integer, TermCountMap> randomCorpus(Random random, int pageCount) {
+        Map<Integer, TermCountMap> pages = new TreeMap<>();
+        for (int pageId = 1; pageId <= pageCount; pageId++) {
+            TermCountMap lemmas = new TermCountMap();
+            LEMMAS.forEach((lemma, share) -> {
+                if (random.nextDouble() < share) {
+                    lemmas.add(lemma, 1 + (int) Math.floor(Math.exp(random.nextDouble() * 5)));
+                }
+            });
+            lemmas.add("шум", pageId);
+            pages.put(pageId, lemmas);
+        }
+        return pages;
+    }
+
+    private static class CountingIndex extends MemorySearchIndex {
+        private long probedPages;
+
+        @Override
+        public float[][] termFrequencies(List<Term> terms, int[] pageIds) {
+            probedPages += (long) terms.size() * pageIds.length;
+            return super.termFrequencies(terms, pageIds);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package searchengine.search;
+
+import org.junit.jupiter.api.Test;
+import searchengine.util.LemmaFinder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhraseQueryTest {
+
+    @Test
+    void parseKeepsOffsetsOfSkippedWords() throws IOException {
+        LemmaFinder lemmaFinder = new LemmaFinder();
+        List<PhraseQuery> phrases = PhraseQuery.parse("билет \"театр и опера\" \"концерт\"", lemmaFinder);
+
+        assertEquals(1, phrases.size());
+        PhraseQuery phrase = phrases.get(0);
+        assertEquals(List.of(lemmaFinder.normalFormOf("театр"), lemmaFinder.normalFormOf("опера")), phrase.lemmas());
+        assertArrayEquals(new int[]{0, 2}, phrase.offsets());
+    }
+
+    @Test
+    void matchesOnlyWordsAtPhraseOffsets() {
+        PhraseQuery phrase = new PhraseQuery(List.of("театр", "опера"), new int[]{0, 2});
+
+        assertTrue(phrase.matches(Map.of("театр", new int[]{4, 10}, "опера", new int[]{12})));
+        assertFalse(phrase.matches(Map.of("театр", new int[]{4, 10}, "опера", new int[]{11, 13})));
+        assertFalse(phrase.matches(Map.of("театр", new int[]{12}, "опера", new int[]{10})));
+    }
+
+    @Test
+    void lemmasWithoutPositionsAreNotChecked() {
+        PhraseQuery phrase = new PhraseQuery(List.of("театр", "опера"), new int[]{0, 1});
+
+        assertTrue(phrase.matches(Map.of("опера", new int[]{3})));
+        assertTrue(phrase.matches(Map.of()));
+    }
+
+    @Test
+    void equalityComparesOffsets() {
+        PhraseQuery phrase = new PhraseQuery(List.of("театр", "опера"), new int[]{0, 2});
+
+        assertEquals(phrase, new PhraseQuery(List.of("театр", "опера"), new int[]{0, 2}));
+        assertEquals(phrase.hashCode(), new PhraseQuery(List.of("театр", "опера"), new int[]{0, 2}).hashCode());
+        assertNotEquals(phrase, new PhraseQuery(List.of("театр", "опера"), new int[]{0, 1}));
+    }
+}
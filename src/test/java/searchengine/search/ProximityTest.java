@@ -0,0 +1,66 @@
+package searchengine.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProximityTest {
+
+    @Test
+    void minimalSpanMatchesBruteForce() {
+        Random random = new Random(18);
+        for (int round = 0; round < 300; round++) {
+            List<int[]> positions = new ArrayList<>();
+            for (int lemma = 1 + random.nextInt(4); lemma > 0; lemma--) {
+                positions.add(random.ints(1 + random.nextInt(6), 0, 60).distinct().sorted().toArray());
+            }
+            assertEquals(bruteForceSpan(positions), Proximity.minimalSpan(positions));
+        }
+    }
+
+    @Test
+    void missingLemmaHasNoSpan() {
+        assertEquals(Integer.MAX_VALUE, Proximity.minimalSpan(List.of(new int[]{1, 2}, new int[0])));
+        List<int[]> withNull = new ArrayList<>();
+        withNull.add(new int[]{1});
+        withNull.add(null);
+        assertEquals(Integer.MAX_VALUE, Proximity.minimalSpan(withNull));
+    }
+
+    @Test
+    void boostFavoursAdjacentWords() {
+        assertEquals(1.5, Proximity.boost(1, 2), 1e-12);
+        assertEquals(1.5, Proximity.boost(0, 2), 1e-12);
+        assertTrue(Proximity.boost(2, 2) < Proximity.boost(1, 2));
+        assertTrue(Proximity.boost(100, 2) > 1.0);
+        assertEquals(1.0, Proximity.boost(Integer.MAX_VALUE, 3), 0.0);
+        assertEquals(1.0, Proximity.boost(0, 1), 0.0);
+    }
+
+    private static int bruteForceSpan(List<int[]> positions) {
+        int best = Integer.MAX_VALUE;
+        for (int[] anchors : positions) {
+            for (int start : anchors) {
+                // окно, начинающееся в start: для каждой леммы ближайшая позиция не левее start
+                int end = start;
+                for (int[] lemmaPositions : positions) {
+                    int nearest = Integer.MAX_VALUE;
+                    for (int position : lemmaPositions) {
+                        if (position >= start) {
+                            nearest = Math.min(nearest, position);
+                        }
+                    }
+                    end = Math.max(end, nearest);
+                }
+                if (end != Integer.MAX_VALUE) {
+                    best = Math.min(best, end - start);
+                }
+            }
+        }
+        return best;
+    }
+}
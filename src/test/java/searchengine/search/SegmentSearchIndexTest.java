@@ -0,0 +1,228 @@
+package searchengine.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import searchengine.util.TermCountMap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentSearchIndexTest {
+
+    private static final List<String> LEMMAS = List.of("альфа", "бета", "гамма", "дельта", "эпсилон");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void segmentRoundTrip() throws IOException {
+        Path file = directory.resolve("single.seg");
+        PostingListBuilder rare = new PostingListBuilder();
+        rare.add(5_000_000, 300);
+        rare.add(7, 1);
+        rare.add(200, 128);
+        rare.sort();
+        PostingListBuilder common = new PostingListBuilder();
+        common.add(7, 2);
+        common.sort();
+
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            writer.addTerm(1, "лемма", rare);
+            writer.addTerm(2, "лемма", common);
+            writer.addPage(5_000_000, 1, 900);
+            writer.addPage(7, 1, 10);
+            writer.addPage(200, 1, 128);
+            writer.finish(42);
+        }
+
+        IndexSegment segment = IndexSegment.open(file);
+        assertEquals(42, segment.generation());
+        assertEquals(2, segment.termCount());
+        assertEquals(-1, segment.findTerm(1, "нет"));
+        assertEquals(-1, segment.findTerm(3, "лемма"));
+
+        int term = segment.findTerm(1, "лемма");
+        assertEquals(3, segment.docFreq(term));
+        assertEquals(300, segment.maxRank(term));
+        List<int[]> postings = new ArrayList<>();
+        segment.readPostings(term, (pageId, rank) -> postings.add(new int[]{pageId, rank}));
+        assertArrayEquals(new int[]{7, 1}, postings.get(0));
+        assertArrayEquals(new int[]{200, 128}, postings.get(1));
+        assertArrayEquals(new int[]{5_000_000, 300}, postings.get(2));
+
+        assertEquals(3, segment.pageCount());
+        int page = segment.findPage(5_000_000);
+        assertEquals(1, segment.pageSiteId(page));
+        assertEquals(900, segment.pageLength(page));
+        assertEquals(-1, segment.findPage(8));
+    }
+
+    /**
+     * Страницы добавляются, заменяются и удаляются в нескольких перезапусках индекса. Каждый перезапуск
+     * записывает сегмент, поэтому их становится больше MAX_SEGMENTS и индекс их сливает.
+     * После каждого перезапуска поиск должен видеть ровно живые страницы.
+     */
+    @Test
+    void flushesMergesAndReopensWithDeletedPages() throws IOException {
+        Random random = new Random(7);
+        Map<Integer, Page> expected = new TreeMap<>();
+
+        Map<Integer, Page> initial = new TreeMap<>();
+        for (int pageId = 1; pageId <= 20; pageId++) {
+            initial.put(pageId, randomPage(random, 1 + pageId % 2));
+        }
+        expected.putAll(initial);
+
+        for (int cycle = 0; cycle < 12; cycle++) {
+            SegmentSearchIndex index = open(cycle == 0 ? initial : Map.of());
+
+            for (int i = 0; i < 5; i++) {
+                int pageId = 100 + cycle * 10 + i;
+                Page page = randomPage(random, 1 + i % 2);
+                index.addPages(page.siteId(), Map.of(pageId, page.lemmas()));
+                expected.put(pageId, page);
+            }
+            // замена страницы из старого сегмента и удаление ещё одной
+            int replacedId = 1 + random.nextInt(20);
+            Page replacement = randomPage(random, expected.containsKey(replacedId) ? expected.get(replacedId).siteId() : 1);
+            index.addPages(replacement.siteId(), Map.of(replacedId, replacement.lemmas()));
+            expected.put(replacedId, replacement);
+
+            List<Integer> ids = new ArrayList<>(expected.keySet());
+            int removedId = ids.get(random.nextInt(ids.size()));
+            index.removePages(List.of(removedId));
+            expected.remove(removedId);
+
+            assertMatches(expected, index);
+            index.close();
+        }
+
+        assertTrue(segmentFiles() <= 8, "сегменты должны сливаться: " + segmentFiles());
+        SegmentSearchIndex reopened = open(Map.of());
+        assertMatches(expected, reopened);
+
+        reopened.removeSite(2);
+        expected.values().removeIf(page -> page.siteId() == 2);
+        assertMatches(expected, reopened);
+        reopened.close();
+        assertMatches(expected, open(Map.of()));
+    }
+
+    /**
+     * Сегменты предыдущего формата не хранят наибольший rank: индекс отбрасывает их и строится из базы.
+     */
+    @Test
+    void rebuildsFromDatabaseAfterFormatChange() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(directory.resolve("segments.commit")))) {
+            out.writeInt(0x434F4D31);
+            out.writeLong(1);
+            out.writeLong(1);
+            out.writeInt(1);
+            out.writeUTF("segment-0000000000.seg");
+            out.writeInt(0);
+        }
+        Files.write(directory.resolve("segment-0000000000.seg"), new byte[64]);
+
+        Random random = new Random(11);
+        Map<Integer, Page> pages = new TreeMap<>();
+        for (int pageId = 1; pageId <= 10; pageId++) {
+            pages.put(pageId, randomPage(random, 1 + pageId % 2));
+        }
+        SegmentSearchIndex index = open(pages);
+        assertMatches(pages, index);
+        index.close();
+        assertMatches(pages, open(Map.of()));
+    }
+
+    private SegmentSearchIndex open(Map<Integer, Page> databasePages) throws IOException {
+        SegmentSearchIndex index = new SegmentSearchIndex();
+        ReflectionTestUtils.setField(index, "segmentsPath", directory.toString());
+        ReflectionTestUtils.setField(index, "searchResultCache", new SearchResultCache(10));
+        ReflectionTestUtils.setField(index, "indexTableLoader", new IndexTableLoader() {
+            @Override
+            public void forEachPage(PageConsumer consumer) {
+                databasePages.forEach((pageId, page) -> consumer.accept(page.siteId(), pageId, page.lemmas()));
+            }
+        });
+        index.open();
+        return index;
+    }
+
+    private static void assertMatches(Map<Integer, Page> expected, SegmentSearchIndex index) {
+        for (int siteId = 1; siteId <= 2; siteId++) {
+            int documents = 0;
+            long tokens = 0;
+            for (Page page : expected.values()) {
+                if (page.siteId() == siteId) {
+                    documents++;
+                    tokens += page.lemmas().totalCount();
+                }
+            }
+            assertEquals(new SiteStatistics(documents, tokens), index.siteStatistics(siteId), "статистика сайта " + siteId);
+
+            for (String lemma : LEMMAS) {
+                List<Integer> pageIds = new ArrayList<>();
+                List<Float> ranks = new ArrayList<>();
+                for (Map.Entry<Integer, Page> page : expected.entrySet()) {
+                    if (page.getValue().siteId() == siteId && page.getValue().lemmas().contains(lemma)) {
+                        pageIds.add(page.getKey());
+                        ranks.add((float) page.getValue().lemmas().get(lemma));
+                    }
+                }
+                Term term = index.findTerm(siteId, lemma);
+                if (pageIds.isEmpty()) {
+                    assertNull(term, lemma);
+                    continue;
+                }
+                assertNotNull(term);
+                assertEquals(pageIds.size(), term.frequency(), "число живых страниц " + lemma);
+                float maxRank = Collections.max(ranks);
+                assertTrue(term.maxRank() >= maxRank && term.maxRank() < Float.POSITIVE_INFINITY,
+                        lemma + ": граница " + term.maxRank() + " при наибольшем rank " + maxRank);
+                int[] expectedIds = pageIds.stream().mapToInt(Integer::intValue).toArray();
+                assertArrayEquals(expectedIds, index.findPageIds(term), lemma);
+
+                float[] expectedRanks = new float[ranks.size()];
+                for (int i = 0; i < expectedRanks.length; i++) {
+                    expectedRanks[i] = ranks.get(i);
+                }
+                assertArrayEquals(expectedRanks, index.termFrequencies(List.of(term), expectedIds)[0], lemma);
+            }
+        }
+
+        int[] allIds = expected.keySet().stream().mapToInt(Integer::intValue).toArray();
+        int[] lengths = index.documentLengths(allIds);
+        for (int i = 0; i < allIds.length; i++) {
+            assertEquals(expected.get(allIds[i]).lemmas().totalCount(), lengths[i], "длина страницы " + allIds[i]);
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static Page randomPage(Random random, int siteId) {
+        TermCountMap lemmas = new TermCountMap();
+        for (String lemma : LEMMAS) {
+            if (random.nextInt(3) > 0) {
+                lemmas.add(lemma, 1 + random.nextInt(200));
+            }
+        }
+        if (lemmas.isEmpty()) {
+            lemmas.add(LEMMAS.get(0), 1);
+        }
+        return new Page(siteId, lemmas);
+    }
+
+    private record Page(int siteId, TermCountMap lemmas) {
+    }
+}
@@ -0,0 +1,62 @@
+package searchengine.search;
+
+import org.junit.jupiter.api.Test;
+import searchengine.search.TopK.ScoredPage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKTest {
+
+    @Test
+    void keepsBestPagesInOrder() {
+        Random random = new Random(15);
+        for (int round = 0; round < 300; round++) {
+            int k = random.nextInt(20);
+            List<ScoredPage> pages = new ArrayList<>();
+            int count = random.nextInt(200);
+            for (int pageId = 0; pageId < count; pageId++) {
+                // мало разных оценок, чтобы проверить порядок при равенстве
+                pages.add(new ScoredPage(pageId, random.nextInt(10)));
+            }
+
+            List<ScoredPage> shuffled = new ArrayList<>(pages);
+            Collections.shuffle(shuffled, random);
+            TopK topK = new TopK(k);
+            shuffled.forEach(page -> topK.offer(page.pageId(), page.score()));
+
+            List<ScoredPage> expected = pages.stream()
+                    .sorted(Comparator.comparingDouble(ScoredPage::score).reversed().thenComparingInt(ScoredPage::pageId))
+                    .limit(k)
+                    .toList();
+            assertEquals(expected, topK.toSortedList());
+        }
+    }
+
+    @Test
+    void thresholdIsWorstKeptScoreOnceFull() {
+        TopK topK = new TopK(2);
+        assertEquals(Double.NEGATIVE_INFINITY, topK.threshold());
+        topK.offer(1, 5);
+        assertEquals(Double.NEGATIVE_INFINITY, topK.threshold());
+        topK.offer(2, 3);
+        assertEquals(3.0, topK.threshold());
+        topK.offer(3, 4);
+        assertEquals(4.0, topK.threshold());
+        topK.offer(4, 1);
+        assertEquals(4.0, topK.threshold());
+    }
+
+    @Test
+    void emptyCapacityKeepsNothing() {
+        TopK topK = new TopK(0);
+        topK.offer(1, 1);
+        assertEquals(Double.NEGATIVE_INFINITY, topK.threshold());
+        assertTrue(topK.toSortedList().isEmpty());
+    }
+}
@@ -0,0 +1,38 @@
+package searchengine.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaCodingTest {
+
+    @Test
+    void roundTripsIncreasingSequences() {
+        Random random = new Random(18);
+        for (int round = 0; round < 200; round++) {
+            int[] values = new int[random.nextInt(300)];
+            int value = 0;
+            for (int i = 0; i < values.length; i++) {
+                // разности от 0 до ~2^24, чтобы varint занимал от одного до четырёх байт
+                value += random.nextInt(1 << random.nextInt(25));
+                values[i] = value;
+            }
+            assertArrayEquals(values, DeltaCoding.decode(DeltaCoding.encode(values)));
+        }
+    }
+
+    @Test
+    void encodesPrefixOfArray() {
+        int[] values = {3, 5, 1000, 1_000_000};
+        assertArrayEquals(new int[]{3, 5}, DeltaCoding.decode(DeltaCoding.encode(values, 2)));
+        assertArrayEquals(new int[0], DeltaCoding.decode(DeltaCoding.encode(values, 0)));
+    }
+
+    @Test
+    void smallGapsTakeOneByte() {
+        assertEquals(4, DeltaCoding.encode(new int[]{1, 2, 3, 130}).length);
+        assertEquals(5, DeltaCoding.encode(new int[]{1, 2, 3, 131}).length);
+    }
+}
@@ -0,0 +1,77 @@
+package searchengine.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostSchedulerTest {
+
+    /**
+     * Второй сайт на том же хосте разрешает только один запрос за раз: пока идёт запрос первого сайта,
+     * его задачи должны ждать в очереди.
+     */
+    @Test
+    void sitesOnOneHostShareTheStrictestLimits() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        HostScheduler scheduler = new HostScheduler(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        AtomicInteger ran = new AtomicInteger();
+
+        scheduler.submit("example.com", 1000, 4, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit("example.com", 1000, 1, () -> {
+                ran.incrementAndGet();
+                done.countDown();
+            });
+        }
+
+        Thread.sleep(200);
+        assertEquals(0, ran.get(), "запросы второго сайта не должны превышать его ограничение");
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, ran.get());
+        scheduler.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * Отклонённая исполнителем задача не должна занимать место запроса к хосту навсегда.
+     */
+    @Test
+    void rejectedTaskDoesNotStallHost() throws InterruptedException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        AtomicBoolean rejectNext = new AtomicBoolean(true);
+        Executor executor = task -> {
+            if (rejectNext.getAndSet(false)) {
+                throw new RejectedExecutionException();
+            }
+            pool.execute(task);
+        };
+        HostScheduler scheduler = new HostScheduler(executor);
+        CountDownLatch done = new CountDownLatch(2);
+
+        scheduler.submit("example.com", 1000, 1, done::countDown);
+        assertEquals(1, scheduler.getQueuedTasks());
+        scheduler.submit("example.com", 1000, 1, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "хост не должен остаться занятым после отказа исполнителя");
+        assertEquals(0, scheduler.getQueuedTasks());
+        scheduler.shutdown();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+package searchengine.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostingListsTest {
+
+    @Test
+    void intersectMatchesSetIntersection() {
+        Random random = new Random(12);
+        for (int round = 0; round < 500; round++) {
+            int[] first = randomPostings(random, random.nextInt(50), 1 + random.nextInt(1000));
+            int[] second = randomPostings(random, random.nextInt(2000), 1 + random.nextInt(1000));
+
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int value : first) {
+                expected.add(value);
+            }
+            TreeSet<Integer> secondSet = new TreeSet<>();
+            for (int value : second) {
+                secondSet.add(value);
+            }
+            expected.retainAll(secondSet);
+
+            int[] expectedArray = expected.stream().mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(expectedArray, PostingLists.intersect(first, second));
+            assertArrayEquals(expectedArray, PostingLists.intersect(second, first));
+        }
+    }
+
+    @Test
+    void intersectWithEmptyList() {
+        assertArrayEquals(new int[0], PostingLists.intersect(new int[0], new int[]{1, 2, 3}));
+        assertArrayEquals(new int[0], PostingLists.intersect(new int[]{1, 2, 3}, new int[0]));
+    }
+
+    @Test
+    void advanceFindsFirstPositionNotLessThanTarget() {
+        int[] postings = {2, 4, 8, 16, 32, 64, 128};
+        assertEquals(0, PostingLists.advance(postings, 0, 1));
+        assertEquals(0, PostingLists.advance(postings, 0, 2));
+        assertEquals(3, PostingLists.advance(postings, 0, 9));
+        assertEquals(3, PostingLists.advance(postings, 3, 2));
+        assertEquals(6, PostingLists.advance(postings, 1, 128));
+        assertEquals(postings.length, PostingLists.advance(postings, 0, 129));
+        assertEquals(postings.length, PostingLists.advance(postings, postings.length, 1));
+    }
+
+    @Test
+    void toSortedArraySortsIds() {
+        assertArrayEquals(new int[]{1, 5, 9}, PostingLists.toSortedArray(List.of(9, 1, 5)));
+    }
+
+    private static int[] randomPostings(Random random, int size, int bound) {
+        TreeSet<Integer> values = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            values.add(random.nextInt(bound));
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+}